@@ -0,0 +1,89 @@
+package com.rinconj.dbupgrader;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * End to end throughput of {@link DbUpgrader#execScript} against an in-memory H2 database, with and without
+ * statement batching. The script is a file of idempotent MERGE statements so every invocation does the same work.
+ */
+@BenchmarkMode(Mode.Throughput)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExecScriptBenchmark {
+    private static final AtomicLong DB_IDS = new AtomicLong();
+
+    @Param({"10", "1000", "10000"})
+    public int statements;
+
+    @Param({"0", "100"})
+    public int batchSize;
+
+    private File scriptDir;
+    private long scriptBytes;
+    private Connection conn;
+    private DbUpgrader upgrader;
+
+    @Setup
+    public void setup() throws IOException, SQLException {
+        scriptDir = File.createTempFile("dbupgrader-bench", "");
+        if (!scriptDir.delete() || !scriptDir.mkdir()) throw new IOException("Failed creating " + scriptDir);
+        File script = new File(scriptDir, "bench.sql");
+        OutputStream out = new FileOutputStream(script);
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < statements; i++)
+                sb.append("merge into bench(id, val) key(id) values(").append(i).append(", 'value ").append(i).append("');\n");
+            out.write(sb.toString().getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        scriptBytes = script.length();
+
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:bench" + DB_IDS.incrementAndGet() + ";DB_CLOSE_DELAY=-1");
+        System.setProperty("dbupgrader.sql.dir", scriptDir.getAbsolutePath());
+        try {
+            upgrader = new DbUpgrader(dataSource, "bench");
+        } finally {
+            System.clearProperty("dbupgrader.sql.dir");
+        }
+        upgrader.setBatchSize(batchSize);
+        conn = dataSource.getConnection();
+        JdbcUtils.executeSql(conn, "create table bench(id int primary key, val varchar(100))");
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        JdbcUtils.executeSql(conn, "shutdown");
+        conn.close();
+        new File(scriptDir, "bench.sql").delete();
+        scriptDir.delete();
+    }
+
+    @Benchmark
+    public void execScript(Scripts.Throughput throughput) throws IOException, SQLException {
+        upgrader.execScript(conn, "bench.sql", false);
+        throughput.bytes += scriptBytes;
+    }
+}
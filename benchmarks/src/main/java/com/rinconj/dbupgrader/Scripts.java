@@ -0,0 +1,85 @@
+package com.rinconj.dbupgrader;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Synthetic scripts used by the benchmarks.
+ */
+public final class Scripts {
+
+    public enum Shape {
+        /**
+         * many short statements, one per line
+         */
+        SMALL_STATEMENTS,
+        /**
+         * a single statement spanning many lines
+         */
+        HUGE_STATEMENT,
+        /**
+         * statements surrounded by line and block comments
+         */
+        COMMENT_HEAVY,
+        /**
+         * inserts with long string literals containing separators and quotes
+         */
+        LONG_STRINGS
+    }
+
+    /**
+     * Bytes processed per operation, reported by JMH as bytes/s next to the ops/s.
+     */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Throughput {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    private Scripts() {
+    }
+
+    /**
+     * Generates a script of about the given size.
+     */
+    static byte[] generate(Shape shape, int size) {
+        StringBuilder sb = new StringBuilder(size + 256);
+        int i = 0;
+        switch (shape) {
+            case SMALL_STATEMENTS:
+                while (sb.length() < size)
+                    sb.append("insert into bench(id, val) values(").append(i++).append(", 'v").append(i).append("');\n");
+                break;
+            case HUGE_STATEMENT:
+                sb.append("create view bench_view as select id, val from bench where id in (\n");
+                while (sb.length() < size) sb.append(i++).append(",\n");
+                sb.append("-1);\n");
+                break;
+            case COMMENT_HEAVY:
+                while (sb.length() < size) {
+                    sb.append("-- line comment ").append(i).append(" with a ; separator\n");
+                    sb.append("/* block comment\n * spanning ; several\n * lines */\n");
+                    sb.append("update bench set val = 'x' where id = ").append(i++).append("; -- trailing\n");
+                }
+                break;
+            case LONG_STRINGS:
+                while (sb.length() < size) {
+                    sb.append("insert into bench(id, val) values(").append(i++).append(", '");
+                    for (int j = 0; j < 40; j++) sb.append("text;with ''quotes'' and -- dashes ");
+                    sb.append("');\n");
+                }
+                break;
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,50 @@
+package com.rinconj.dbupgrader;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parsing throughput of {@link StatementIterator} on synthetic scripts. Run with <code>-prof gc</code> to get the
+ * allocation rate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StatementIteratorBenchmark {
+
+    @Param({"SMALL_STATEMENTS", "HUGE_STATEMENT", "COMMENT_HEAVY", "LONG_STRINGS"})
+    public Scripts.Shape shape;
+
+    @Param({"65536", "4194304"})
+    public int size;
+
+    private byte[] script;
+
+    @Setup
+    public void setup() {
+        script = Scripts.generate(shape, size);
+    }
+
+    @Benchmark
+    public void parse(Scripts.Throughput throughput, Blackhole blackhole) throws IOException {
+        StatementIterator iterator = new StatementIterator(new InputStreamReader(new ByteArrayInputStream(script), StandardCharsets.UTF_8));
+        while (iterator.hasNext()) blackhole.consume(iterator.next());
+        throughput.bytes += script.length;
+    }
+}
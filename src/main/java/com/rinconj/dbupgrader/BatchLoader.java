@@ -0,0 +1,243 @@
+package com.rinconj.dbupgrader;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.Format;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.rinconj.dbupgrader.Directive.booleanOption;
+import static com.rinconj.dbupgrader.Directive.intOption;
+import static com.rinconj.dbupgrader.Directive.stringOption;
+import static java.lang.String.format;
+
+/**
+ * Executes the <b>@batch</b> directive: loads a CSV file by binding the columns of every record into the
+ * parameters <code>:$batch_[column index]</code> of the statement following the directive e.g.
+ * <pre>
+ * &#64;batch "data.csv" ({header:true, delimiter:',', batchSize:1000,
+ *   cols:[{type:INTEGER}, {type:STRING}, {type:DATE, format:'dd/MM/yyyy'}, {type:DECIMAL, format:'#.##'}]})
+ * </pre>
+ * The file is streamed through a single prepared statement, executed in JDBC batches of <i>batchSize</i> records.
+ * Supported column types are INTEGER, STRING, DATE, TIMESTAMP and DECIMAL, columns without a type are bound as
+ * strings. Empty values are bound as null except for strings.
+ */
+class BatchLoader {
+    static final String DIRECTIVE = "batch";
+    static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private final static Logger LOGGER = Logger.getLogger(BatchLoader.class.getName());
+    private static final Pattern PARAMETER = Pattern.compile(":\\$batch_(\\d+)");
+
+    enum ColumnType {
+        INTEGER(Types.BIGINT), STRING(Types.VARCHAR), DATE(Types.DATE), TIMESTAMP(Types.TIMESTAMP), DECIMAL(Types.DECIMAL);
+
+        final int sqlType;
+
+        ColumnType(int sqlType) {
+            this.sqlType = sqlType;
+        }
+    }
+
+    private final Connection conn;
+    private final String sql;
+    private final int[] parameterColumns;
+    private final Column[] columns;
+    private final boolean header;
+    private final char delimiter;
+    private final int batchSize;
+
+    /**
+     * @param conn
+     * @param directive the batch directive, with the statement to execute for every record
+     * @param defaultBatchSize the batch size when not given in the directive options
+     */
+    BatchLoader(Connection conn, Directive directive, int defaultBatchSize) {
+        this.conn = conn;
+        Map<String, Object> options = directive.getOptions();
+        this.header = booleanOption(options, "header", false);
+        String delimiter = stringOption(options, "delimiter", ",");
+        if (delimiter.length() != 1) throw new IllegalArgumentException("Invalid delimiter: " + delimiter);
+        this.delimiter = delimiter.charAt(0);
+        this.batchSize = intOption(options, "batchSize", defaultBatchSize);
+
+        List<Integer> params = new ArrayList<Integer>();
+        Matcher matcher = PARAMETER.matcher(directive.getSql());
+        StringBuffer sb = new StringBuffer();
+        while (matcher.find()) {
+            params.add(Integer.valueOf(matcher.group(1)));
+            matcher.appendReplacement(sb, "?");
+        }
+        matcher.appendTail(sb);
+        if (params.isEmpty()) throw new IllegalArgumentException("No :$batch_N parameters in statement: " + directive.getSql());
+        this.sql = sb.toString();
+        this.parameterColumns = new int[params.size()];
+        int maxColumn = 0;
+        for (int i = 0; i < parameterColumns.length; i++) {
+            parameterColumns[i] = params.get(i);
+            maxColumn = Math.max(maxColumn, parameterColumns[i]);
+        }
+
+        Object cols = options.get("cols");
+        List<?> colDefs = cols instanceof List ? (List<?>) cols : new ArrayList<Object>();
+        this.columns = new Column[Math.max(maxColumn + 1, colDefs.size())];
+        for (int i = 0; i < columns.length; i++) {
+            Object def = i < colDefs.size() ? colDefs.get(i) : null;
+            columns[i] = def instanceof Map ? new Column((Map<?, ?>) def) : new Column(ColumnType.STRING, null);
+        }
+    }
+
+    /**
+     * Loads all the records of the given CSV data.
+     *
+     * @param data the CSV content, closed when done
+     * @param file the file name, for reporting
+     * @return the number of records loaded
+     */
+    long load(Reader data, String file) throws IOException, SQLException {
+        CsvReader csv = new CsvReader(data, delimiter);
+        PreparedStatement ps = conn.prepareStatement(sql);
+        try {
+            if (header) csv.next();
+            long loaded = 0;
+            int pending = 0;
+            List<String> record;
+            while ((record = csv.next()) != null) {
+                if (record.size() == 1 && record.get(0).isEmpty()) continue; //blank line
+                bind(ps, record, csv.getRecordNumber(), file);
+                if (batchSize > 1) {
+                    ps.addBatch();
+                    if (++pending == batchSize) {
+                        execute(ps, csv.getRecordNumber() - pending + 1, file);
+                        pending = 0;
+                    }
+                } else {
+                    executeUpdate(ps, csv.getRecordNumber(), file);
+                }
+                loaded++;
+            }
+            if (pending > 0) execute(ps, csv.getRecordNumber() - pending + 1, file);
+            LOGGER.info(loaded + " record(s) loaded from " + file);
+            return loaded;
+        } finally {
+            ps.close();
+            csv.close();
+        }
+    }
+
+    private void bind(PreparedStatement ps, List<String> record, long recordNumber, String file) throws SQLException {
+        for (int i = 0; i < parameterColumns.length; i++) {
+            int col = parameterColumns[i];
+            if (col >= record.size())
+                throw new SQLException(format("Missing column %d in record %d of %s", col, recordNumber, file));
+            try {
+                columns[col].bind(ps, i + 1, record.get(col));
+            } catch (IllegalArgumentException e) {
+                throw new SQLException(format("Invalid value for column %d in record %d of %s: %s", col, recordNumber, file, e.getMessage()), e);
+            }
+        }
+    }
+
+    private void execute(PreparedStatement ps, long firstRecord, String file) throws SQLException {
+        try {
+            ps.executeBatch();
+        } catch (BatchUpdateException e) {
+            long failed = firstRecord + failedIndex(e.getUpdateCounts());
+            throw new SQLException(format("Failed loading record %d of %s (batch starting at record %d)", failed, file, firstRecord), e.getSQLState(), e.getErrorCode(), e);
+        }
+    }
+
+    private static int failedIndex(int[] counts) {
+        if (counts == null) return 0;
+        for (int i = 0; i < counts.length; i++)
+            if (counts[i] == Statement.EXECUTE_FAILED) return i;
+        return counts.length;
+    }
+
+    private void executeUpdate(PreparedStatement ps, long recordNumber, String file) throws SQLException {
+        try {
+            ps.executeUpdate();
+        } catch (SQLException e) {
+            throw new SQLException(format("Failed loading record %d of %s", recordNumber, file), e.getSQLState(), e.getErrorCode(), e);
+        }
+    }
+
+    private static class Column {
+        private final ColumnType type;
+        private final Format format;
+
+        Column(Map<?, ?> def) {
+            this(def.get("type") == null ? ColumnType.STRING : ColumnType.valueOf(def.get("type").toString().toUpperCase(Locale.ROOT)),
+                    def.get("format") == null ? null : def.get("format").toString());
+        }
+
+        Column(ColumnType type, String pattern) {
+            this.type = type;
+            if (pattern == null) {
+                this.format = null;
+            } else if (type == ColumnType.DATE || type == ColumnType.TIMESTAMP) {
+                SimpleDateFormat dateFormat = new SimpleDateFormat(pattern, Locale.ROOT);
+                dateFormat.setLenient(false);
+                this.format = dateFormat;
+            } else if (type == ColumnType.DECIMAL) {
+                DecimalFormat decimalFormat = new DecimalFormat(pattern, DecimalFormatSymbols.getInstance(Locale.ROOT));
+                decimalFormat.setParseBigDecimal(true);
+                this.format = decimalFormat;
+            } else {
+                this.format = null;
+            }
+        }
+
+        void bind(PreparedStatement ps, int index, String value) throws SQLException {
+            if (type == ColumnType.STRING) {
+                ps.setString(index, value);
+                return;
+            }
+            value = value.trim();
+            if (value.isEmpty()) {
+                ps.setNull(index, type.sqlType);
+                return;
+            }
+            switch (type) {
+                case INTEGER:
+                    ps.setLong(index, Long.parseLong(value));
+                    break;
+                case DECIMAL:
+                    ps.setBigDecimal(index, format == null ? new BigDecimal(value) : (BigDecimal) parse(value));
+                    break;
+                case DATE:
+                    ps.setDate(index, format == null ? java.sql.Date.valueOf(value) : new java.sql.Date(((Date) parse(value)).getTime()));
+                    break;
+                case TIMESTAMP:
+                    ps.setTimestamp(index, format == null ? Timestamp.valueOf(value) : new Timestamp(((Date) parse(value)).getTime()));
+                    break;
+            }
+        }
+
+        private Object parse(String value) {
+            ParsePosition position = new ParsePosition(0);
+            Object parsed = format.parseObject(value, position);
+            if (parsed == null || position.getIndex() != value.length())
+                throw new IllegalArgumentException("'" + value + "' doesn't match the format");
+            return parsed;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.rinconj.dbupgrader;
+
+/**
+ * What to do when an upgrade script changed after being applied to the database.
+ *
+ * @see DbUpgrader#setChecksumPolicy(ChecksumPolicy)
+ */
+public enum ChecksumPolicy {
+    /** No history of the applied scripts is kept (default) */
+    NONE,
+    /** Logs a warning for every changed script */
+    WARN,
+    /** Fails the sync */
+    FAIL
+}
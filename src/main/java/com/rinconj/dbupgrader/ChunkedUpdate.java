@@ -0,0 +1,195 @@
+package com.rinconj.dbupgrader;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.rinconj.dbupgrader.Directive.intOption;
+import static com.rinconj.dbupgrader.Directive.stringOption;
+import static java.lang.String.format;
+
+/**
+ * Executes the <b>@chunked</b> directive: runs the statement following the directive once per range of an integer key
+ * of a table, binding the bounds of the range into the parameters <code>:$chunk_start</code> and
+ * <code>:$chunk_end</code> (both inclusive) e.g.
+ * <pre>
+ * &#64;chunked {table:'orders', key:'id', size:10000, pauseMillis:100, rowsPerSecond:50000}
+ * update orders set status_code = upper(status) where id between :$chunk_start and :$chunk_end;
+ * </pre>
+ * The ranges cover the key values between the minimum and maximum of the table when the directive starts. Every
+ * range is committed on its own, so locks are only held for one chunk, and the execution is throttled by pausing
+ * <i>pauseMillis</i> after every chunk and, if <i>rowsPerSecond</i> is set, as long as needed to keep the rows
+ * updated per second below it. In resumable mode the last completed range is checkpointed with its chunk, so an
+ * interrupted update resumes after it.
+ */
+class ChunkedUpdate {
+    static final String DIRECTIVE = "chunked";
+    static final int DEFAULT_CHUNK_SIZE = 10000;
+
+    private final static Logger LOGGER = Logger.getLogger(ChunkedUpdate.class.getName());
+    private static final Pattern PARAMETER = Pattern.compile(":\\$chunk_(start|end)\\b");
+    private static final Pattern IDENTIFIER = Pattern.compile("[\\w$.\"]+");
+
+    /**
+     * Called when a chunk completed, before it is committed.
+     */
+    interface Checkpoint {
+        void chunkCompleted(long lastKey);
+    }
+
+    private final Connection conn;
+    private final String resource;
+    private final int ordinal;
+    private final StatementWatchdog watchdog;
+    private final String sql;
+    //for every parameter, whether it is the end of the range
+    private final boolean[] parameterEnds;
+    private final String table;
+    private final String key;
+    private final long chunkSize;
+    private final long pauseMillis;
+    private final long rowsPerSecond;
+
+    /**
+     * @param ordinal position of the statement in the script
+     */
+    ChunkedUpdate(Connection conn, Directive directive, String resource, int ordinal, StatementWatchdog watchdog) {
+        this.conn = conn;
+        this.resource = resource;
+        this.ordinal = ordinal;
+        this.watchdog = watchdog;
+        Map<String, Object> options = directive.getOptions();
+        this.table = identifierOption(options, "table");
+        this.key = identifierOption(options, "key");
+        this.chunkSize = intOption(options, "size", DEFAULT_CHUNK_SIZE);
+        this.pauseMillis = intOption(options, "pauseMillis", 0);
+        this.rowsPerSecond = intOption(options, "rowsPerSecond", 0);
+        if (chunkSize < 1) throw new IllegalArgumentException("Invalid chunk size " + chunkSize);
+
+        List<Boolean> params = new ArrayList<Boolean>();
+        Matcher matcher = PARAMETER.matcher(directive.getSql());
+        StringBuffer sb = new StringBuffer();
+        while (matcher.find()) {
+            params.add(matcher.group(1).equals("end"));
+            matcher.appendReplacement(sb, "?");
+        }
+        matcher.appendTail(sb);
+        if (params.isEmpty()) throw new IllegalArgumentException("No :$chunk_start/:$chunk_end parameters in statement: " + directive.getSql());
+        this.sql = sb.toString();
+        this.parameterEnds = new boolean[params.size()];
+        for (int i = 0; i < parameterEnds.length; i++) parameterEnds[i] = params.get(i);
+    }
+
+    private static String identifierOption(Map<String, Object> options, String name) {
+        String value = stringOption(options, name, null);
+        if (value == null) throw new IllegalArgumentException("Missing option " + name);
+        if (!IDENTIFIER.matcher(value).matches()) throw new IllegalArgumentException("Invalid " + name + ": " + value);
+        return value;
+    }
+
+    /**
+     * Executes the statement for every chunk, committing each one. The current transaction, if any, is committed
+     * first.
+     *
+     * @param lastKey    the last key of the last completed chunk in an interrupted run, or null to start from the
+     *                   minimum key
+     * @param checkpoint called when every chunk completes, or null
+     * @return the number of rows affected
+     */
+    long execute(Long lastKey, Checkpoint checkpoint) throws SQLException {
+        long[] range = keyRange();
+        if (range == null) {
+            LOGGER.info("Table " + table + " is empty, nothing to update");
+            return 0;
+        }
+        long from = lastKey == null ? range[0] : lastKey + 1;
+        long to = range[1];
+        if (lastKey != null) LOGGER.info(format("Resuming chunked update of %s after key %d", table, lastKey));
+
+        boolean autoCommit = conn.getAutoCommit();
+        if (autoCommit) conn.setAutoCommit(false);
+        else conn.commit();
+        PreparedStatement ps = conn.prepareStatement(sql);
+        try {
+            long rows = 0;
+            long chunks = 0;
+            long start = System.nanoTime();
+            //lastKey + 1 overflows after the maximum key
+            for (long chunkStart = from; chunkStart <= to && chunkStart >= from; chunkStart += chunkSize) {
+                long chunkEnd = to - chunkStart < chunkSize ? to : chunkStart + chunkSize - 1;
+                for (int i = 0; i < parameterEnds.length; i++) ps.setLong(i + 1, parameterEnds[i] ? chunkEnd : chunkStart);
+                int updated = executeChunk(ps, chunkStart, chunkEnd);
+                if (updated > 0) rows += updated;
+                if (checkpoint != null) checkpoint.chunkCompleted(chunkEnd);
+                conn.commit();
+                chunks++;
+                LOGGER.fine(format("%s chunk [%d, %d]: %d row(s) affected", table, chunkStart, chunkEnd, updated));
+                if (chunkEnd == to) break;
+                throttle(rows, start);
+            }
+            LOGGER.info(format("Chunked update of %s completed: %d chunk(s), %d row(s) affected", table, chunks, rows));
+            return rows;
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            ps.close();
+            if (autoCommit) conn.setAutoCommit(true);
+        }
+    }
+
+    private int executeChunk(PreparedStatement ps, long chunkStart, long chunkEnd) throws SQLException {
+        StatementWatchdog.Execution execution = watchdog.start(ps, resource, ordinal, format("chunk [%d, %d] of %s", chunkStart, chunkEnd, sql));
+        try {
+            int updated = ps.executeUpdate();
+            watchdog.finish(execution);
+            return updated;
+        } catch (SQLException e) {
+            throw watchdog.failed(execution, e);
+        }
+    }
+
+    /**
+     * @return the minimum and maximum keys of the table, or null if it's empty
+     */
+    private long[] keyRange() throws SQLException {
+        Statement statement = conn.createStatement();
+        try {
+            ResultSet rs = statement.executeQuery(format("SELECT MIN(%s), MAX(%s) FROM %s", key, key, table));
+            try {
+                rs.next();
+                long min = rs.getLong(1);
+                if (rs.wasNull()) return null;
+                return new long[]{min, rs.getLong(2)};
+            } finally {
+                rs.close();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    private void throttle(long rows, long start) throws SQLException {
+        long wait = pauseMillis;
+        if (rowsPerSecond > 0) {
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            wait = Math.max(wait, rows * 1000 / rowsPerSecond - elapsed);
+        }
+        if (wait <= 0) return;
+        try {
+            Thread.sleep(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted chunked update of " + table, e);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.rinconj.dbupgrader;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Dispatches the events to a list of listeners.
+ */
+class CompositeListener implements UpgradeListener {
+    private final List<UpgradeListener> listeners = new CopyOnWriteArrayList<UpgradeListener>();
+
+    CompositeListener(UpgradeListener... listeners) {
+        for (UpgradeListener listener : listeners) add(listener);
+    }
+
+    void add(UpgradeListener listener) {
+        listeners.add(listener);
+    }
+
+    void remove(UpgradeListener listener) {
+        listeners.remove(listener);
+    }
+
+    boolean isEmpty() {
+        return listeners.isEmpty();
+    }
+
+    @Override
+    public void versionStarted(int fromVersion, int toVersion) {
+        for (UpgradeListener listener : listeners) listener.versionStarted(fromVersion, toVersion);
+    }
+
+    @Override
+    public void versionFinished(int fromVersion, int toVersion, long nanos) {
+        for (UpgradeListener listener : listeners) listener.versionFinished(fromVersion, toVersion, nanos);
+    }
+
+    @Override
+    public void scriptStarted(String resource) {
+        for (UpgradeListener listener : listeners) listener.scriptStarted(resource);
+    }
+
+    @Override
+    public void scriptFinished(String resource, int statements, long nanos) {
+        for (UpgradeListener listener : listeners) listener.scriptFinished(resource, statements, nanos);
+    }
+
+    @Override
+    public void statementStarted(String resource, int ordinal, String sql) {
+        for (UpgradeListener listener : listeners) listener.statementStarted(resource, ordinal, sql);
+    }
+
+    @Override
+    public void statementFinished(String resource, int ordinal, String sql, long updateCount, long nanos) {
+        for (UpgradeListener listener : listeners) listener.statementFinished(resource, ordinal, sql, updateCount, nanos);
+    }
+
+    @Override
+    public void statementFailed(String resource, int ordinal, String sql, SQLException error, long nanos) {
+        for (UpgradeListener listener : listeners) listener.statementFailed(resource, ordinal, sql, error, nanos);
+    }
+}
@@ -0,0 +1,105 @@
+package com.rinconj.dbupgrader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal streaming CSV reader. Records are read one at a time through a fixed size buffer, so memory use doesn't
+ * depend on the size of the file. Fields may be quoted with double quotes, a quote inside a quoted field is
+ * escaped by doubling it. Both \n and \r\n line endings are accepted.
+ */
+class CsvReader implements Closeable {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader reader;
+    private final char delimiter;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int pos;
+    private int limit;
+    private final StringBuilder field = new StringBuilder();
+    private final List<String> record = new ArrayList<String>();
+    private long recordNumber;
+
+    CsvReader(Reader reader, char delimiter) {
+        this.reader = reader;
+        this.delimiter = delimiter;
+    }
+
+    /**
+     * Reads the next record. The returned list is reused by the following call.
+     *
+     * @return the fields of the record, or null at the end of the file
+     */
+    List<String> next() throws IOException {
+        record.clear();
+        int c = read();
+        if (c == -1) return null;
+        recordNumber++;
+        boolean quoted = false;
+        field.setLength(0);
+        while (true) {
+            if (quoted) {
+                if (c == -1) throw new IOException("Unterminated quoted field in record " + recordNumber);
+                if (c == '"') {
+                    if (peek() == '"') {
+                        pos++;
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == delimiter) {
+                record.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n' || c == -1) {
+                break;
+            } else if (c == '\r' && peek() == '\n') {
+                pos++;
+                break;
+            } else {
+                field.append((char) c);
+            }
+            c = read();
+        }
+        record.add(field.toString());
+        return record;
+    }
+
+    /**
+     * @return the number of records read so far, including the header if any
+     */
+    long getRecordNumber() {
+        return recordNumber;
+    }
+
+    private int read() throws IOException {
+        return fill() ? buffer[pos++] : -1;
+    }
+
+    private int peek() throws IOException {
+        return fill() ? buffer[pos] : -1;
+    }
+
+    private boolean fill() throws IOException {
+        if (pos < limit) return true;
+        if (limit == -1) return false;
+        int n;
+        do {
+            n = reader.read(buffer, 0, buffer.length);
+        } while (n == 0);
+        pos = 0;
+        limit = n;
+        return n > 0;
+    }
+
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -3,15 +3,26 @@ package com.rinconj.dbupgrader;
 
 import javax.sql.DataSource;
 import java.io.*;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executor;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import static com.rinconj.dbupgrader.JdbcUtils.collectFirst;
-import static com.rinconj.dbupgrader.JdbcUtils.executeQuery;
 import static com.rinconj.dbupgrader.JdbcUtils.executeSql;
+import static com.rinconj.dbupgrader.JdbcUtils.queryFirst;
 import static java.lang.String.format;
-import static java.lang.String.valueOf;
 
 /**
  * Upgrades/downgrades a database based on versioned SQL scripts. The following conventions are used:
@@ -36,6 +47,14 @@ public class DbUpgrader {
     private static final String ADD_LAST_SYNC_ALTER_TABLE = "ALTER TABLE %s ADD LAST_SYNC TIMESTAMP";
     private static final String CREATE_VERSION_TABLE_SQL = "CREATE TABLE %s(id varchar(100) NOT NULL, version INTEGER NOT NULL, last_sync TIMESTAMP, " +
             "CONSTRAINT unique_dbinfo_id PRIMARY KEY (id))";
+    private static final String SELECT_VERSION_SQL = "SELECT version FROM %s WHERE id=?";
+    private static final String SELECT_VERSION_INFO_SQL = "SELECT version, last_sync FROM %s WHERE id=?";
+    private static final String SELECT_LAST_SYNC_SQL = "SELECT LAST_SYNC FROM %s WHERE id=?";
+    private static final String INSERT_VERSION_SQL = "INSERT INTO %s(id,version, last_sync) values(?,?,?)";
+    private static final String UPDATE_VERSION_SQL = "UPDATE %s set version=?, last_sync=? where id = ?";
+    private static final int STATEMENT_CACHE_SIZE = 12;
+    private static final long LOCK_MIN_BACKOFF_MILLIS = 100;
+    private static final long LOCK_MAX_BACKOFF_MILLIS = 5000;
 
     private String scriptsBasePath = "/db";
 
@@ -54,6 +73,42 @@ public class DbUpgrader {
 
     private File scriptDir;
 
+    private int batchSize;
+
+    private boolean transactional;
+
+    private int pipelineDepth;
+
+    private boolean resumable;
+
+    private boolean locking;
+
+    private Charset charset = Charset.defaultCharset();
+
+    private long lockLeaseMillis = 60000;
+
+    private long lockTimeoutMillis = 30 * 60000;
+
+    private ChecksumPolicy checksumPolicy = ChecksumPolicy.NONE;
+
+    private long statementTimeoutMillis;
+
+    private long versionTimeoutMillis;
+
+    private long slowStatementMillis;
+
+    private SqlDialect dialect;
+
+    private ScriptBundle bundle;
+
+    private boolean bundleLoaded;
+
+    private ScriptRepository scriptRepository = ScriptRepository.SHARED;
+
+    private volatile long lastVersionCheckNanos;
+
+    private final CompositeListener listeners = new CompositeListener();
+
     public DbUpgrader(DataSource dataSource, String environment) {
         if(environment==null) throw new IllegalArgumentException("invalid environment specified!");
         if(dataSource==null) throw new IllegalArgumentException("null datasource provided");
@@ -78,59 +133,114 @@ public class DbUpgrader {
      * @param version
      */
     public void syncToVersion(int version, boolean allowDowngrade, boolean emptyDb) throws Exception {
+        syncToVersion(version, allowDowngrade, emptyDb, listeners);
+    }
+
+    /**
+     * @param listeners the listeners of this sync, usually including the ones of the upgrader
+     */
+    void syncToVersion(int version, boolean allowDowngrade, boolean emptyDb, UpgradeListener listeners) throws Exception {
         Connection con = null;
+        StatementCache cache = null;
+        UpgradeLock lock = null;
+        StatementWatchdog watchdog = null;
         try {
             con = dataSource.getConnection();
+            cache = new StatementCache(con, STATEMENT_CACHE_SIZE);
+            long checkStart = System.nanoTime();
+            VersionInfo versionInfo = queryVersion(cache);
+            lastVersionCheckNanos = System.nanoTime() - checkStart;
+            if (isSynced(versionInfo, version, allowDowngrade)) {
+                LOGGER.fine(format("DB already at version %d, checked in %dus", versionInfo.version, lastVersionCheckNanos / 1000));
+                return;
+            }
+            if (locking) {
+                lock = acquireLock(cache, version, allowDowngrade);
+                //upgraded by another node in the meantime
+                if (lock == null) return;
+                versionInfo = queryVersion(cache);
+                if (isSynced(versionInfo, version, allowDowngrade)) return;
+            }
+            watchdog = new StatementWatchdog(statementTimeoutMillis, versionTimeoutMillis, slowStatementMillis);
             DatabaseMetaData metaData = con.getMetaData();
             LOGGER.info(format("executing DB version sync on DB: %s@%s", metaData.getUserName(), metaData.getURL()));
-            ResultSet rs = metaData.getTables(null, null, versionTable, null);
+            ScriptHistory history = null;
+            if (checksumPolicy != ChecksumPolicy.NONE) {
+                history = new ScriptHistory(cache, versionTable + "_HISTORY", schemaId);
+                history.createTableIfMissing(metaData);
+            }
             int dbCurVersion;
-            if (rs.next()) {
-                dbCurVersion = ((Number)collectFirst(executeQuery(con, "select version from " + versionTable + " WHERE id=?", schemaId), 0)).intValue();
-                Timestamp lastSync = getLastSync(con);
+            if (versionInfo != null) {
+                dbCurVersion = versionInfo.version;
+                LOGGER.info("last sync was on " + versionInfo.lastSync);
+            } else if (versionTableExists(metaData)) {
+                dbCurVersion = ((Number) queryFirst(cache, format(SELECT_VERSION_SQL, versionTable), 0, schemaId)).intValue();
+                Timestamp lastSync = getLastSync(cache);
                 LOGGER.info("last sync was on " + lastSync);
             } else {
                 //empty db: setup versioning and current sql
-                con.createStatement().execute(format(CREATE_VERSION_TABLE_SQL, versionTable));
+                executeSql(con, format(CREATE_VERSION_TABLE_SQL, versionTable));
                 if (emptyDb) {
                     LOGGER.info("Apparently an empty schema...applying current script");
                     //apparently an empty db
-                    execScript(con, "latest/current.sql", false);
-                    execScript(con, "latest/" + environment + "/current.sql", true);
-                    executeSql(con, format("INSERT INTO %s(id,version, last_sync) values(?,?,?)", versionTable), schemaId, version, new Timestamp(System.currentTimeMillis()));
+                    boolean tx = beginTransaction(con, metaData);
+                    try {
+                        String[] currentScripts = currentScripts();
+                        watchdog.startVersion(-1, version);
+                        record(history, -1, version, execScript(con, currentScripts[0], false, null, watchdog, listeners));
+                        record(history, -1, version, execScript(con, currentScripts[1], true, null, watchdog, listeners));
+                        executeSql(cache, format(INSERT_VERSION_SQL, versionTable), schemaId, version, new Timestamp(System.currentTimeMillis()));
+                        if (tx) con.commit();
+                    } catch (Exception e) {
+                        if (tx) rollback(con);
+                        throw e;
+                    } finally {
+                        if (tx) con.setAutoCommit(true);
+                    }
                     dbCurVersion = version;
                 } else {
-                    executeSql(con, format("INSERT INTO %s(id,version, last_sync) values(?,?,?)", versionTable), schemaId, 0, new Timestamp(System.currentTimeMillis()));
+                    executeSql(cache, format(INSERT_VERSION_SQL, versionTable), schemaId, 0, new Timestamp(System.currentTimeMillis()));
                     dbCurVersion = 0;
                 }
             }
 
+            if (history != null) verifyChecksums(history, dbCurVersion, dialectOf(con));
+
+            String updateVersionSql = format(UPDATE_VERSION_SQL, versionTable);
+            ProgressTracker progress = null;
+            if (resumable && version != dbCurVersion) {
+                progress = new ProgressTracker(cache, versionTable + "_PROGRESS", schemaId);
+                progress.createTableIfMissing(metaData);
+            }
             if (version > dbCurVersion) {
-                for (int v = dbCurVersion + 1; v <= version; v++) {
-                    LOGGER.info(format("Upgrading DB from %d to %d", v - 1, v));
-                    //execute common upgrade
-                    execScript(con, scriptFileFormat.replaceAll("%version", valueOf(v)).replaceAll("%type", "upgrade"), true);
-                    //execute env specific upgrade
-                    execScript(con, scriptEnvFileFormat.replaceAll("%version", valueOf(v)).replaceAll("%env", environment).replaceAll("%type", "upgrade"), true);
-                    //update version in DB
-                    executeSql(con, format("UPDATE %s set version=?, last_sync=? where id = ?", versionTable), v, new Timestamp(System.currentTimeMillis()) ,schemaId);
+                boolean tx = beginTransaction(con, metaData);
+                try {
+                    for (int v = dbCurVersion + 1; v <= version; v++) {
+                        LOGGER.info(format("Upgrading DB from %d to %d", v - 1, v));
+                        execVersion(con, cache, tx, progress, watchdog, listeners, history, updateVersionSql, v - 1, v, versionScripts(v - 1, v));
+                    }
+                } finally {
+                    if (tx) con.setAutoCommit(true);
                 }
             } else if (version < dbCurVersion && allowDowngrade) {
                 LOGGER.info("downgrading from " + dbCurVersion + " to " + version);
-                for (int v = dbCurVersion; v > version; v--) {
-                    LOGGER.info("Downgrading DB from version " + v);
-                    //execute env specific downgrade
-                    execScript(con, scriptEnvFileFormat.replaceAll("%version", valueOf(v)).replaceAll("%env", environment).replaceAll("%type", "rollback"), true);
-                    //execute common downgrade
-                    execScript(con, scriptFileFormat.replaceAll("%version", valueOf(v)).replaceAll("%type", "rollback"), true);
-                    //update version in DB
-                    executeSql(con, format("UPDATE %s set version=?, last_sync=? where id = ?", versionTable), v - 1, new Timestamp(System.currentTimeMillis()), schemaId);
+                boolean tx = beginTransaction(con, metaData);
+                try {
+                    for (int v = dbCurVersion; v > version; v--) {
+                        LOGGER.info("Downgrading DB from version " + v);
+                        execVersion(con, cache, tx, progress, watchdog, listeners, history, updateVersionSql, v, v - 1, versionScripts(v, v - 1));
+                    }
+                } finally {
+                    if (tx) con.setAutoCommit(true);
                 }
             }
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, "Failed upgrading DB", e);
             throw new Exception(e);
         } finally {
+            if (watchdog != null) watchdog.close();
+            if (lock != null) lock.release();
+            if (cache != null) cache.close();
             if (con != null) try {
                 con.close();
             } catch (SQLException e) {
@@ -138,14 +248,286 @@ public class DbUpgrader {
         }
     }
 
-    private Timestamp getLastSync(Connection con) {
+    /**
+     * Runs {@link #syncToVersion(int, boolean, boolean)} in a new daemon thread.
+     *
+     * @return the running sync, to wait for, cancel or monitor
+     */
+    public UpgradeTask syncToVersionAsync(int version, boolean allowDowngrade, boolean emptyDb) {
+        UpgradeTask task = new UpgradeTask(this, version, allowDowngrade, emptyDb);
+        Thread thread = new Thread(task, "dbupgrader-" + schemaId);
+        thread.setDaemon(true);
+        thread.start();
+        return task;
+    }
+
+    /**
+     * Runs {@link #syncToVersion(int, boolean, boolean)} with the given executor. The sync blocks its thread, so the
+     * executor shouldn't be a shared pool of CPU bound tasks, e.g. the common fork join pool.
+     *
+     * @return the sync, to wait for, cancel or monitor
+     */
+    public UpgradeTask syncToVersionAsync(int version, boolean allowDowngrade, boolean emptyDb, Executor executor) {
+        UpgradeTask task = new UpgradeTask(this, version, allowDowngrade, emptyDb);
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * @return the scripts of a version step, in execution order: common then env specific scripts for upgrades, and the
+     * other way around for rollbacks
+     */
+    private String[] versionScripts(int fromVersion, int toVersion) {
+        if (toVersion > fromVersion) {
+            return new String[]{scriptPath(scriptFileFormat, toVersion, "upgrade"), scriptPath(scriptEnvFileFormat, toVersion, "upgrade")};
+        }
+        return new String[]{scriptPath(scriptEnvFileFormat, fromVersion, "rollback"), scriptPath(scriptFileFormat, fromVersion, "rollback")};
+    }
+
+    /**
+     * Replaces the %version, %env and %type placeholders of the given script path format.
+     */
+    private String scriptPath(String format, int version, String type) {
+        StringBuilder sb = new StringBuilder(format.length() + 16);
+        int start = 0;
+        for (int i = format.indexOf('%'); i >= 0; i = format.indexOf('%', start)) {
+            sb.append(format, start, i);
+            if (format.startsWith("%version", i)) {
+                sb.append(version);
+                start = i + 8;
+            } else if (format.startsWith("%env", i)) {
+                sb.append(environment);
+                start = i + 4;
+            } else if (format.startsWith("%type", i)) {
+                sb.append(type);
+                start = i + 5;
+            } else {
+                sb.append('%');
+                start = i + 1;
+            }
+        }
+        return sb.append(format, start, format.length()).toString();
+    }
+
+    /**
+     * @return the scripts applied to an empty database, only the first one is mandatory
+     */
+    private String[] currentScripts() {
+        return new String[]{"latest/current.sql", "latest/" + environment + "/current.sql"};
+    }
+
+    private static boolean isSynced(VersionInfo versionInfo, int version, boolean allowDowngrade) {
+        return versionInfo != null && (versionInfo.version == version || (versionInfo.version > version && !allowDowngrade));
+    }
+
+    /**
+     * Waits for the upgrade lock, polling it with an exponential backoff. While waiting, the version is checked
+     * again after every poll, as the lock holder may upgrade the database to the requested version.
+     *
+     * @return the acquired lock, or null if the database was synced by another node in the meantime
+     */
+    private UpgradeLock acquireLock(StatementCache cache, int version, boolean allowDowngrade) throws SQLException, InterruptedException {
+        UpgradeLock lock = new UpgradeLock(dataSource, versionTable + "_LOCK", schemaId, lockLeaseMillis);
+        long deadline = System.currentTimeMillis() + lockTimeoutMillis;
+        long backoff = LOCK_MIN_BACKOFF_MILLIS;
+        Random random = new Random();
+        while (!lock.tryAcquire()) {
+            if (System.currentTimeMillis() >= deadline)
+                throw new SQLException("Timed out after " + lockTimeoutMillis + "ms waiting for the upgrade lock of " + schemaId);
+            LOGGER.info("Waiting for another node to upgrade " + schemaId);
+            //random jitter, so the waiting nodes don't poll all at once
+            Thread.sleep(backoff / 2 + (long) (random.nextDouble() * backoff));
+            backoff = Math.min(backoff * 2, LOCK_MAX_BACKOFF_MILLIS);
+            Connection con = cache.getConnection();
+            if (!con.getAutoCommit()) con.rollback();
+            if (isSynced(queryVersion(cache), version, allowDowngrade)) {
+                LOGGER.info("DB upgraded by another node");
+                return null;
+            }
+        }
+        return lock;
+    }
+
+    /**
+     * Executes the scripts of a version step and updates the version row, committing them together when running in a
+     * transaction.
+     */
+    private void execVersion(Connection con, StatementCache cache, boolean tx, ProgressTracker progress, StatementWatchdog watchdog,
+                             UpgradeListener listeners, ScriptHistory history, String updateVersionSql, int fromVersion, int toVersion, String... scripts) throws IOException, SQLException {
+        listeners.versionStarted(fromVersion, toVersion);
+        watchdog.startVersion(fromVersion, toVersion);
+        long start = System.nanoTime();
+        try {
+            if (progress != null) progress.startStep(fromVersion, toVersion, scripts);
+            for (String script : scripts) record(history, fromVersion, toVersion, execScript(con, script, true, progress, watchdog, listeners));
+            //update version in DB
+            executeSql(cache, updateVersionSql, toVersion, new Timestamp(System.currentTimeMillis()), schemaId);
+            if (progress != null) progress.finishStep();
+            if (tx) con.commit();
+        } catch (Exception e) {
+            if (tx) rollback(con);
+            throw e;
+        }
+        listeners.versionFinished(fromVersion, toVersion, System.nanoTime() - start);
+    }
+
+    /**
+     * Records the outcome of a script with its current stamp, only read when a history is kept.
+     */
+    private void record(ScriptHistory history, int fromVersion, int toVersion, ScriptHistory.ScriptResult result) throws IOException {
+        if (history != null && result != null) history.record(fromVersion, toVersion, result, scriptStamp(result.resource));
+    }
+
+    /**
+     * Compares the latest recorded hash of every applied upgrade script with its current content. The current and
+     * rollback scripts aren't checked, as they are expected to change.
+     *
+     * @throws SQLException if a script changed and the checksum policy is {@link ChecksumPolicy#FAIL}
+     */
+    private void verifyChecksums(ScriptHistory history, int dbVersion, SqlDialect dialect) throws IOException, SQLException {
+        List<HistoryEntry> drifted = findDrifted(history, dbVersion, dialect);
+        if (drifted.isEmpty()) return;
+        for (HistoryEntry entry : drifted)
+            LOGGER.warning(entry.getScript() + " changed since it was applied on " + entry.getApplied());
+        if (checksumPolicy == ChecksumPolicy.FAIL)
+            throw new SQLException(drifted.size() + " applied script(s) changed since applied, first: " + drifted.get(0).getScript());
+    }
+
+    /**
+     * Only the scripts whose stamp changed since recorded are hashed again, recording their new stamp if their content
+     * didn't change.
+     */
+    private List<HistoryEntry> findDrifted(ScriptHistory history, int dbVersion, SqlDialect dialect) throws IOException, SQLException {
+        Map<String, HistoryEntry> latest = new LinkedHashMap<String, HistoryEntry>();
+        for (HistoryEntry entry : history.load()) {
+            if (entry.getFromVersion() >= 0 && entry.getToVersion() > entry.getFromVersion() && entry.getToVersion() <= dbVersion)
+                latest.put(entry.getScript(), entry);
+        }
+        List<HistoryEntry> drifted = new ArrayList<HistoryEntry>();
+        for (HistoryEntry entry : latest.values()) {
+            String stamp = scriptStamp(entry.getScript());
+            if (stamp != null && stamp.equals(entry.getStamp())) continue;
+            if (!entry.getHash().equals(hashResource(entry.getScript(), dialect))) drifted.add(entry);
+            else if (stamp != null) history.updateStamp(entry, stamp);
+        }
+        return drifted;
+    }
+
+    /**
+     * @return the size and modification time of the script, or null if unknown. Scripts of the bundle have no stamp,
+     * their hash is known without reading them.
+     */
+    private String scriptStamp(String resource) throws IOException {
+        if (getBundle() != null) return null;
+        long length;
+        long modified;
+        if (scriptDir != null) {
+            File file = new File(scriptDir, resource);
+            length = file.length();
+            modified = file.lastModified();
+        } else {
+            URL url = getClass().getResource(scriptsBasePath + "/" + resource);
+            if (url == null) return null;
+            URLConnection connection = url.openConnection();
+            length = connection.getContentLengthLong();
+            modified = connection.getLastModified();
+            //the headers of some connections (e.g. files) are read from an open stream
+            connection.getInputStream().close();
+        }
+        return length < 0 || modified <= 0 ? null : length + "/" + modified;
+    }
+
+    /**
+     * @return the hash of the current content of the script, or null if it doesn't exist anymore
+     */
+    private String hashResource(String resource, SqlDialect dialect) throws IOException {
+        Script script = lookupScript(resource, dialect);
+        if (script == Script.MISSING) return null;
+        if (script != null) return script.getHash();
+        MessageDigest digest = Script.newDigest();
+        InputStream is = openResource(resource);
+        try {
+            byte[] buffer = new byte[8192];
+            for (int n = is.read(buffer); n != -1; n = is.read(buffer)) digest.update(buffer, 0, n);
+        } finally {
+            is.close();
+        }
+        return Script.toHex(digest.digest());
+    }
+
+    /**
+     * Turns off auto-commit if running in transactional mode and the database supports transactions.
+     *
+     * @return true if a transaction was started
+     */
+    private boolean beginTransaction(Connection con, DatabaseMetaData metaData) throws SQLException {
+        if (!transactional || !con.getAutoCommit()) return false;
+        if (!metaData.supportsTransactions()) {
+            LOGGER.warning("The database doesn't support transactions, executing scripts in auto-commit mode");
+            return false;
+        }
+        if (!metaData.supportsDataDefinitionAndDataManipulationTransactions() || metaData.dataDefinitionCausesTransactionCommit()) {
+            LOGGER.info("DDL statements commit the transaction in this database, versions with DDL can be partially applied on failure");
+        }
+        con.setAutoCommit(false);
+        return true;
+    }
+
+    private static void rollback(Connection con) {
+        try {
+            con.rollback();
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Failed rolling back version changes", e);
+        }
+    }
+
+    /**
+     * Reads the version and last sync time in a single query, without looking up the database metadata.
+     *
+     * @return the version info, or null if the version table or the schema row doesn't exist (or the table is of an
+     * old format, without the last sync column)
+     */
+    private VersionInfo queryVersion(StatementCache cache) throws SQLException {
+        try {
+            PreparedStatement ps = cache.prepare(format(SELECT_VERSION_INFO_SQL, versionTable));
+            ps.setString(1, schemaId);
+            ResultSet rs = ps.executeQuery();
+            try {
+                return rs.next() ? new VersionInfo(rs.getInt(1), rs.getTimestamp(2)) : null;
+            } finally {
+                rs.close();
+            }
+        } catch (SQLException e) {
+            //a failed statement aborts the current transaction in some databases e.g. postgres
+            Connection con = cache.getConnection();
+            if (!con.getAutoCommit()) con.rollback();
+            return null;
+        }
+    }
+
+    private boolean versionTableExists(DatabaseMetaData metaData) throws SQLException {
+        ResultSet rs = metaData.getTables(null, null, versionTable, null);
+        try {
+            return rs.next();
+        } finally {
+            rs.close();
+        }
+    }
+
+    private Timestamp getLastSync(StatementCache cache) {
         try{
-            ResultSet rs = executeQuery(con, format("SELECT LAST_SYNC FROM %s WHERE id=?", versionTable), schemaId);
-            return rs.next()? rs.getTimestamp(1) : null;
+            PreparedStatement ps = cache.prepare(format(SELECT_LAST_SYNC_SQL, versionTable));
+            ps.setString(1, schemaId);
+            ResultSet rs = ps.executeQuery();
+            try {
+                return rs.next()? rs.getTimestamp(1) : null;
+            } finally {
+                rs.close();
+            }
         }catch (Exception e){
             LOGGER.info("upgrading version table...");
             try{
-                executeSql(con, format(ADD_LAST_SYNC_ALTER_TABLE, versionTable));
+                executeSql(cache.getConnection(), format(ADD_LAST_SYNC_ALTER_TABLE, versionTable));
             }catch (Exception e1){
                 LOGGER.log(Level.SEVERE, "failed determining last sync time", e);
                 throw new RuntimeException(e);
@@ -161,15 +543,181 @@ public class DbUpgrader {
      */
     public int getCurrentDbVersion() {
         Connection con = null;
+        StatementCache cache = null;
         try {
             con = dataSource.getConnection();
-            if (con.getMetaData().getTables(null, null, versionTable, null).next()) {
-                return ((Number) collectFirst(executeQuery(con, "select version from " + versionTable + " WHERE id=?", schemaId), 0)).intValue();
+            cache = new StatementCache(con, 1);
+            try {
+                return ((Number) queryFirst(cache, format(SELECT_VERSION_SQL, versionTable), 0, schemaId)).intValue();
+            } catch (RuntimeException e) {
+                //no version table yet
+                if (!con.getAutoCommit()) con.rollback();
+                if (versionTableExists(con.getMetaData())) throw e;
+                return 0;
             }
-            return 0;
         } catch (SQLException e) {
             throw new RuntimeException("Failed retrieving current db version", e);
         } finally {
+            if (cache != null) cache.close();
+            if (con != null) try {
+                con.close();
+            } catch (SQLException e) {
+            }
+        }
+    }
+
+    /**
+     * @return the time taken by the last {@link #syncToVersion(int, boolean, boolean)} to read the current version
+     * of the database, in nanoseconds. When the database is already at the requested version, this is almost all
+     * the time spent by the sync.
+     */
+    public long getLastVersionCheckNanos() {
+        return lastVersionCheckNanos;
+    }
+
+    /**
+     * Computes the scripts that {@link #syncToVersion(int, boolean, boolean)} would execute with the same arguments,
+     * without executing them. The database is only queried for its current version, on a read-only connection.
+     *
+     * @return the plan, with no steps if the database is already synced
+     */
+    public UpgradePlan plan(int version, boolean allowDowngrade, boolean emptyDb) throws Exception {
+        return plan(version, allowDowngrade, emptyDb, true);
+    }
+
+    /**
+     * @param countStreamed whether to read the scripts too large to be cached to count their statements, otherwise
+     *                      they're left uncounted (see {@link UpgradePlan#isCounted()})
+     */
+    UpgradePlan plan(int version, boolean allowDowngrade, boolean emptyDb, boolean countStreamed) throws Exception {
+        int dbVersion;
+        SqlDialect dialect;
+        Connection con = null;
+        StatementCache cache = null;
+        boolean readOnly = false;
+        try {
+            con = dataSource.getConnection();
+            readOnly = con.isReadOnly();
+            con.setReadOnly(true);
+            dialect = dialectOf(con);
+            cache = new StatementCache(con, 1);
+            VersionInfo versionInfo = queryVersion(cache);
+            if (versionInfo != null) {
+                dbVersion = versionInfo.version;
+            } else if (versionTableExists(con.getMetaData())) {
+                dbVersion = ((Number) queryFirst(cache, format(SELECT_VERSION_SQL, versionTable), 0, schemaId)).intValue();
+            } else {
+                dbVersion = emptyDb ? -1 : 0;
+            }
+        } finally {
+            if (cache != null) cache.close();
+            if (con != null) try {
+                con.setReadOnly(readOnly);
+                con.close();
+            } catch (SQLException e) {
+            }
+        }
+        if (dbVersion < 0) {
+            List<UpgradePlan.ScriptPlan> scripts = new ArrayList<UpgradePlan.ScriptPlan>();
+            for (String script : currentScripts()) scripts.add(planScript(script, dialect, countStreamed));
+            List<UpgradePlan.Step> steps = new ArrayList<UpgradePlan.Step>();
+            steps.add(new UpgradePlan.Step(-1, version, scripts));
+            return new UpgradePlan(-1, version, steps);
+        }
+        return plan(dbVersion, dbVersion > version && !allowDowngrade ? dbVersion : version, dialect, countStreamed);
+    }
+
+    /**
+     * Computes the scripts to execute to move a database from one version to another, without connecting to it. Useful
+     * to check the scripts in a build. The scripts are split with the configured dialect, {@link SqlDialect#GENERIC}
+     * if not set.
+     */
+    public UpgradePlan plan(int fromVersion, int toVersion) throws IOException {
+        return plan(fromVersion, toVersion, dialect != null ? dialect : SqlDialect.GENERIC, true);
+    }
+
+    private UpgradePlan plan(int fromVersion, int toVersion, SqlDialect dialect, boolean countStreamed) throws IOException {
+        List<UpgradePlan.Step> steps = new ArrayList<UpgradePlan.Step>();
+        int step = toVersion > fromVersion ? 1 : -1;
+        for (int v = fromVersion; v != toVersion; v += step) {
+            List<UpgradePlan.ScriptPlan> scripts = new ArrayList<UpgradePlan.ScriptPlan>();
+            for (String script : versionScripts(v, v + step)) scripts.add(planScript(script, dialect, countStreamed));
+            steps.add(new UpgradePlan.Step(v, v + step, scripts));
+        }
+        return new UpgradePlan(fromVersion, toVersion, steps);
+    }
+
+    private UpgradePlan.ScriptPlan planScript(String resource, SqlDialect dialect, boolean countStreamed) throws IOException {
+        Script script = lookupScript(resource, dialect);
+        if (script == Script.MISSING) return new UpgradePlan.ScriptPlan(resource, false);
+        UpgradePlan.ScriptPlan plan = new UpgradePlan.ScriptPlan(resource, true);
+        if (script != null) {
+            for (String stmt : script) planStatement(plan, stmt);
+            return plan;
+        }
+        if (!countStreamed) {
+            plan.setCounted(false);
+            return plan;
+        }
+        Reader reader = openReader(resource);
+        try {
+            StatementIterator iterator = new StatementIterator(reader, statementSeparator, dialect);
+            for (CharSequence stmt = iterator.nextSequence(); stmt != null; stmt = iterator.nextSequence())
+                planStatement(plan, stmt);
+        } finally {
+            reader.close();
+        }
+        return plan;
+    }
+
+    private static void planStatement(UpgradePlan.ScriptPlan plan, CharSequence stmt) {
+        //only statements with a leading comment can have a directive
+        Directive directive = stmt.length() > 1 && stmt.charAt(0) == '/' && stmt.charAt(1) == '*' ? Directive.parse(stmt.toString()) : null;
+        if (directive != null && directive.getName().equals(ParallelRegion.DIRECTIVE)) plan.addParallelRegion();
+        if (directive != null && directive.getName().equals(BatchLoader.DIRECTIVE)) plan.addBatchLoad();
+        if (directive != null && directive.getSql().isEmpty()) return;
+        plan.addStatement(StatementType.of(stmt), stmt.length());
+    }
+
+    /**
+     * Returns the scripts applied to the database, with their hash, duration and affected rows, as recorded when the
+     * checksum policy is other than {@link ChecksumPolicy#NONE}. Useful to report the time taken by every version.
+     *
+     * @return the applied scripts, oldest first, or an empty list if no history was recorded
+     */
+    public List<HistoryEntry> getHistory() throws SQLException {
+        Connection con = null;
+        StatementCache cache = null;
+        try {
+            con = dataSource.getConnection();
+            cache = new StatementCache(con, 1);
+            ScriptHistory history = new ScriptHistory(cache, versionTable + "_HISTORY", schemaId);
+            return history.tableExists(con.getMetaData()) ? history.load() : new ArrayList<HistoryEntry>();
+        } finally {
+            if (cache != null) cache.close();
+            if (con != null) try {
+                con.close();
+            } catch (SQLException e) {
+            }
+        }
+    }
+
+    /**
+     * Checks the upgrade scripts applied to the database against their recorded hash, without syncing it.
+     *
+     * @return the history entries of the scripts that changed since they were applied
+     */
+    public List<HistoryEntry> verifyChecksums() throws SQLException, IOException {
+        int dbVersion = getCurrentDbVersion();
+        Connection con = null;
+        StatementCache cache = null;
+        try {
+            con = dataSource.getConnection();
+            cache = new StatementCache(con, 2);
+            ScriptHistory history = new ScriptHistory(cache, versionTable + "_HISTORY", schemaId);
+            return history.tableExists(con.getMetaData()) ? findDrifted(history, dbVersion, dialectOf(con)) : new ArrayList<HistoryEntry>();
+        } finally {
+            if (cache != null) cache.close();
             if (con != null) try {
                 con.close();
             } catch (SQLException e) {
@@ -203,44 +751,182 @@ public class DbUpgrader {
      * @param ignoreIfNotFound
      * @throws IOException
      */
-    void execScript(Connection conn, String resource, boolean ignoreIfNotFound) throws IOException, SQLException {
-        InputStream is;
-        if (scriptDir != null) {
-            File file = new File(scriptDir, resource);
-            is = file.isFile() ? new FileInputStream(file) : null;
-        } else {
-            is = getClass().getResourceAsStream(scriptsBasePath + "/" + resource);
-        }
+    ScriptHistory.ScriptResult execScript(Connection conn, String resource, boolean ignoreIfNotFound) throws IOException, SQLException {
+        return execScript(conn, resource, ignoreIfNotFound, null, StatementWatchdog.DISABLED, listeners);
+    }
 
-        if (is == null && !ignoreIfNotFound) throw new IOException("SQL Script Resource " + resource + " not found!");
-        if (is == null) return;
+    /**
+     * Executes the specified SQL script, recording the completed statements with the given progress tracker, and
+     * skipping the ones that completed in an interrupted run.
+     *
+     * @param watchdog  bounds the execution time of the statements
+     * @param listeners the listeners of the sync
+     * @return the outcome of the script, or null if not found or completed in a previous run
+     */
+    ScriptHistory.ScriptResult execScript(Connection conn, String resource, boolean ignoreIfNotFound, ProgressTracker progress,
+                                          StatementWatchdog watchdog, UpgradeListener listeners) throws IOException, SQLException {
+        if (progress != null && progress.isCompleted(resource)) {
+            LOGGER.info("Skipping " + resource + ", completed in a previous run");
+            return null;
+        }
+        SqlDialect dialect = dialectOf(conn);
+        Script script = lookupScript(resource, dialect);
+        //a null script is too large to be cached, it's streamed instead
+        boolean found = script != null ? script != Script.MISSING : resourceExists(resource);
+        if (!found && !ignoreIfNotFound) throw new IOException("SQL Script Resource " + resource + " not found!");
+        if (!found) return null;
         LOGGER.info("Executing " + resource);
-        StatementIterator iterator = new StatementIterator(new InputStreamReader(is), statementSeparator);
-        while (iterator.hasNext()) {
-            String stmt = iterator.next();
-            Statement statement = null;
+        listeners.scriptStarted(resource);
+        long start = System.nanoTime();
+        int skip = progress == null ? 0 : progress.getResumeOrdinal(resource);
+        if (skip > 0 && !isSameScript(script, resource, dialect, skip, progress.getResumeHash())) {
+            LOGGER.warning(resource + " changed since the interrupted run, executing it from the start");
+            skip = 0;
+        }
+        ScriptExecutor executor = new ScriptExecutor(this, conn, resource, listeners, progress, watchdog, skip);
+        int statements;
+        String hash;
+        if (script != null) {
+            statements = executor.execute(script.iterator());
+            hash = script.getHash();
+        } else {
+            //hashed while parsing, the iterator reads the script to the end
+            MessageDigest digest = Script.newDigest();
+            Reader reader = openReader(resource, digest);
+            StatementPipeline pipeline = null;
             try {
-                LOGGER.info("executing: " + stmt);
-                statement = conn.createStatement();
-                boolean hasResult = statement.execute(stmt);
-                if(!hasResult){
-                    LOGGER.info(statement.getUpdateCount() + " row(s) affected");
-                }
-            } catch (SQLException e) {
-                LOGGER.log(Level.SEVERE, "Failed executing statement:" + stmt, e);
-                throw e;
+                Iterator<String> iterator = new StatementIterator(reader, statementSeparator, dialect);
+                if (pipelineDepth > 0) iterator = pipeline = new StatementPipeline(iterator, pipelineDepth, resource);
+                statements = executor.execute(iterator);
             } finally {
-                if(statement!=null) statement.close();
+                if (pipeline != null) pipeline.close();
+                reader.close();
+            }
+            hash = Script.toHex(digest.digest());
+        }
+        long nanos = System.nanoTime() - start;
+        listeners.scriptFinished(resource, statements, nanos);
+        return new ScriptHistory.ScriptResult(resource, hash, statements, executor.getRows(), nanos);
+    }
+
+    /**
+     * Checks that the first statements of the script, the ones completed in the interrupted run, are unchanged.
+     *
+     * @param script the cached script, or null if the script is streamed
+     */
+    private boolean isSameScript(Script script, String resource, SqlDialect dialect, int statements, long expectedHash) throws IOException {
+        long hash = 0;
+        if (script != null) {
+            if (script.size() < statements) return false;
+            for (int i = 0; i < statements; i++) hash = ProgressTracker.hash(hash, script.getStatements().get(i));
+            return hash == expectedHash;
+        }
+        Reader reader = openReader(resource);
+        if (reader == null) return false;
+        try {
+            //only hashed, the statements aren't copied to strings
+            StatementIterator iterator = new StatementIterator(reader, statementSeparator, dialect);
+            for (int i = 0; i < statements; i++) {
+                CharSequence stmt = iterator.nextSequence();
+                if (stmt == null) return false;
+                hash = ProgressTracker.hash(hash, stmt);
+            }
+            return hash == expectedHash;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return the cached script of the given resource, {@link Script#MISSING} if not found, or null if it must be
+     * streamed
+     */
+    private Script lookupScript(String resource, SqlDialect dialect) throws IOException {
+        ScriptBundle bundle = getBundle();
+        if (bundle != null) {
+            if (bundle.matches(statementSeparator, dialect)) return bundle.get(resource);
+            LOGGER.warning(format("Ignoring the script bundle, compiled for separator %s and dialect %s instead of %s and %s",
+                    bundle.getSeparator(), bundle.getDialect(), statementSeparator, dialect));
+            setBundle(null);
+        }
+        return scriptDir != null ? scriptRepository.getFile(new File(scriptDir, resource), statementSeparator, dialect, charset)
+                : scriptRepository.getResource(scriptsBasePath + "/" + resource, statementSeparator, dialect, charset);
+    }
+
+    /**
+     * Loads the script bundle of the scripts base path on first use. Bundles are ignored when the scripts are taken
+     * from the <b>dbupgrader.sql.dir</b> directory.
+     *
+     * @return the bundle, or null if there's none
+     */
+    private synchronized ScriptBundle getBundle() throws IOException {
+        if (!bundleLoaded) {
+            bundleLoaded = true;
+            InputStream is = scriptDir != null ? null : getClass().getResourceAsStream(scriptsBasePath + "/" + ScriptBundle.BUNDLE_NAME);
+            if (is != null) {
+                try {
+                    bundle = ScriptBundle.read(is);
+                    LOGGER.info("Loaded " + bundle.size() + " script(s) from the bundle of " + scriptsBasePath);
+                } finally {
+                    is.close();
+                }
             }
         }
+        return bundle;
+    }
+
+    private SqlDialect dialectOf(Connection con) throws SQLException {
+        return dialect != null ? dialect : SqlDialect.of(con.getMetaData());
+    }
+
+    /**
+     * Opens a reader of the given script resource, decoding it with the configured charset. Files of the scripts
+     * directory are memory mapped, so large scripts are not loaded into the heap.
+     *
+     * @return the reader, or null if not found
+     */
+    Reader openReader(String resource) throws IOException {
+        return openReader(resource, null);
+    }
+
+    /**
+     * @param digest digest to update with the bytes of the script as they are read, or null
+     */
+    Reader openReader(String resource, MessageDigest digest) throws IOException {
+        if (scriptDir != null) {
+            File file = new File(scriptDir, resource);
+            return file.isFile() ? new MappedFileReader(file, charset, MappedFileReader.DEFAULT_WINDOW_SIZE, digest) : null;
+        }
+        InputStream is = getClass().getResourceAsStream(scriptsBasePath + "/" + resource);
+        if (is == null) return null;
+        return new InputStreamReader(digest == null ? is : new DigestInputStream(is, digest), charset);
+    }
+
+    private boolean resourceExists(String resource) {
+        return scriptDir != null ? new File(scriptDir, resource).isFile() : getClass().getResource(scriptsBasePath + "/" + resource) != null;
+    }
+
+    /**
+     * Opens the given script resource from the scripts directory if set, or the classpath otherwise.
+     *
+     * @return the resource stream, or null if not found
+     */
+    InputStream openResource(String resource) throws IOException {
+        if (scriptDir != null) {
+            File file = new File(scriptDir, resource);
+            return file.isFile() ? new FileInputStream(file) : null;
+        }
+        return getClass().getResourceAsStream(scriptsBasePath + "/" + resource);
     }
 
     public String getScriptsBasePath() {
         return scriptsBasePath;
     }
 
-    public void setScriptsBasePath(String scriptsBasePath) {
+    public synchronized void setScriptsBasePath(String scriptsBasePath) {
         this.scriptsBasePath = scriptsBasePath;
+        bundle = null;
+        bundleLoaded = false;
     }
 
     public char getStatementSeparator() {
@@ -251,6 +937,217 @@ public class DbUpgrader {
         this.statementSeparator = statementSeparator;
     }
 
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Enables JDBC batching of consecutive DML statements (INSERT, UPDATE, DELETE, MERGE) in the scripts. Any other
+     * statement executes the pending batch first and then runs on its own, so the script order is preserved.
+     *
+     * @param batchSize maximum number of statements per batch, 0 or 1 disables batching (default)
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public boolean isTransactional() {
+        return transactional;
+    }
+
+    /**
+     * Executes every version step, i.e. its common and environment specific scripts and the version update, in its
+     * own transaction instead of auto-committing every statement. A failed step is rolled back, so it can be simply
+     * retried. On databases where DDL statements commit the transaction (e.g. MySQL, Oracle) only the DML is rolled
+     * back, and on databases without transactions the scripts run in auto-commit mode as usual.
+     * <p>
+     * Connections already in manual commit mode are left as they are.
+     */
+    public void setTransactional(boolean transactional) {
+        this.transactional = transactional;
+    }
+
+    public long getStatementTimeoutMillis() {
+        return statementTimeoutMillis;
+    }
+
+    /**
+     * Limits the execution time of every statement, applied as its JDBC query timeout (rounded up to seconds) and
+     * enforced by cancelling the statements still running after it. Statements run in chunks are limited per chunk,
+     * and batched statements per batch.
+     *
+     * @param statementTimeoutMillis 0 for no limit (default)
+     */
+    public void setStatementTimeoutMillis(long statementTimeoutMillis) {
+        this.statementTimeoutMillis = statementTimeoutMillis;
+    }
+
+    public long getVersionTimeoutMillis() {
+        return versionTimeoutMillis;
+    }
+
+    /**
+     * Limits the execution time of the statements of every version step: the statements running when it is exhausted
+     * are cancelled, and no other statement is started, so the step fails.
+     *
+     * @param versionTimeoutMillis 0 for no limit (default)
+     */
+    public void setVersionTimeoutMillis(long versionTimeoutMillis) {
+        this.versionTimeoutMillis = versionTimeoutMillis;
+    }
+
+    public long getSlowStatementMillis() {
+        return slowStatementMillis;
+    }
+
+    /**
+     * Reports the slow statements in the log: while running, every <i>slowStatementMillis</i>, with their position in
+     * the script and elapsed time, and once completed.
+     *
+     * @param slowStatementMillis 0 to disable the reports (default)
+     */
+    public void setSlowStatementMillis(long slowStatementMillis) {
+        this.slowStatementMillis = slowStatementMillis;
+    }
+
+    public int getPipelineDepth() {
+        return pipelineDepth;
+    }
+
+    /**
+     * Parses the scripts in a background thread while the statements are executed, the parser can be up to
+     * <i>pipelineDepth</i> statements ahead. Statements are still executed in order, in the calling thread. Applies
+     * to the scripts too large to be cached, as the cached ones are parsed once.
+     *
+     * @param pipelineDepth maximum number of statements parsed ahead, 0 disables the pipeline (default)
+     */
+    public void setPipelineDepth(int pipelineDepth) {
+        this.pipelineDepth = pipelineDepth;
+    }
+
+    public boolean isResumable() {
+        return resumable;
+    }
+
+    /**
+     * Records the progress of every version step in a <i>versionTable</i>_PROGRESS table, so that a step interrupted by
+     * a failure or a crash resumes after its last completed statement, instead of running its scripts from the start.
+     * The completed statements are skipped only if they didn't change since, otherwise the scripts run from the start.
+     * <p>
+     * A checkpoint is written after every statement (or batch of statements), so this is meant for long running
+     * upgrades.
+     */
+    public void setResumable(boolean resumable) {
+        this.resumable = resumable;
+    }
+
+    public boolean isLocking() {
+        return locking;
+    }
+
+    /**
+     * Takes a cluster wide lock, a row in a <i>versionTable</i>_LOCK table, before upgrading the database, so when
+     * many nodes start at once only one of them runs the upgrade. The others wait for the lock and return as soon as
+     * the database is at the requested version.
+     */
+    public void setLocking(boolean locking) {
+        this.locking = locking;
+    }
+
+    public long getLockLeaseMillis() {
+        return lockLeaseMillis;
+    }
+
+    /**
+     * @param lockLeaseMillis time after which the lock of a node that stopped renewing it (e.g. crashed) can be taken
+     *                        by another node, 1 minute by default
+     */
+    public void setLockLeaseMillis(long lockLeaseMillis) {
+        this.lockLeaseMillis = lockLeaseMillis;
+    }
+
+    public long getLockTimeoutMillis() {
+        return lockTimeoutMillis;
+    }
+
+    /**
+     * @param lockTimeoutMillis maximum time to wait for the lock before failing, 30 minutes by default
+     */
+    public void setLockTimeoutMillis(long lockTimeoutMillis) {
+        this.lockTimeoutMillis = lockTimeoutMillis;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * Sets the charset of the scripts, and the default one of the <b>@batch</b> data files. Defaults to the platform
+     * charset.
+     */
+    public void setCharset(Charset charset) {
+        if (charset == null) throw new IllegalArgumentException("null charset provided");
+        this.charset = charset;
+    }
+
+    public ChecksumPolicy getChecksumPolicy() {
+        return checksumPolicy;
+    }
+
+    /**
+     * Records every applied script, with the hash of its content, its duration and the rows it affected, in a
+     * <i>versionTable</i>_HISTORY table, and checks on every sync that the upgrade scripts already applied didn't
+     * change since. Changed scripts are logged, or fail the sync, depending on the policy.
+     *
+     * @param checksumPolicy {@link ChecksumPolicy#NONE} by default, which doesn't keep any history
+     */
+    public void setChecksumPolicy(ChecksumPolicy checksumPolicy) {
+        if (checksumPolicy == null) throw new IllegalArgumentException("null checksum policy provided");
+        this.checksumPolicy = checksumPolicy;
+    }
+
+    public SqlDialect getDialect() {
+        return dialect;
+    }
+
+    /**
+     * Sets the dialect used to split the scripts in statements, e.g. to recognise PL/SQL blocks or Postgres dollar
+     * quoted function bodies. By default it's detected from the database product name.
+     *
+     * @param dialect the dialect, or null to detect it
+     */
+    public void setDialect(SqlDialect dialect) {
+        this.dialect = dialect;
+    }
+
+    synchronized void setBundle(ScriptBundle bundle) {
+        this.bundle = bundle;
+        bundleLoaded = true;
+    }
+
+    void setScriptRepository(ScriptRepository scriptRepository) {
+        this.scriptRepository = scriptRepository;
+    }
+
+    /**
+     * Adds a listener to receive the version, script and statement events of the following syncs.
+     */
+    public void addListener(UpgradeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(UpgradeListener listener) {
+        listeners.remove(listener);
+    }
+
+    UpgradeListener getListeners() {
+        return listeners;
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
     public String getSchemaId() {
         return schemaId;
     }
@@ -258,46 +1155,21 @@ public class DbUpgrader {
     public void setSchemaId(String schemaId) {
         this.schemaId = schemaId;
     }
-}
-
-
-class JdbcUtils {
 
-    public static <T> T collectFirst(ResultSet rs, T defaultValue) throws SQLException {
-        if (!rs.next()) return defaultValue;
-        return (T) rs.getObject(1);
+    /**
+     * @return the tables of the upgrader: the version, lock, progress and history tables
+     */
+    List<String> getUpgraderTables() {
+        return Arrays.asList(versionTable, versionTable + "_LOCK", versionTable + "_PROGRESS", versionTable + "_HISTORY");
     }
 
-    public static ResultSet executeQuery(Connection conn, String sql, Object... args) {
-        try {
-            PreparedStatement ps = conn.prepareStatement(sql);
-            int i = 0;
-            for (Object arg : args) {
-                if (arg == null)
-                    ps.setNull(++i, Types.CHAR);
-                else
-                    ps.setObject(++i, arg);
-            }
-            return ps.executeQuery();
-        } catch (SQLException e) {
-            throw new RuntimeException("failed executing query :" + sql, e);
-        }
-    }
+    private static class VersionInfo {
+        final int version;
+        final Timestamp lastSync;
 
-    public static void executeSql(Connection conn, String sql, Object... args) {
-        try {
-            PreparedStatement ps = conn.prepareStatement(sql);
-            int i = 0;
-            for (Object arg : args) {
-                if (arg == null)
-                    ps.setNull(++i, Types.CHAR);
-                else
-                    ps.setObject(++i, arg);
-            }
-            ps.execute();
-        } catch (SQLException e) {
-            throw new RuntimeException("failed executing query :" + sql, e);
+        VersionInfo(int version, Timestamp lastSync) {
+            this.version = version;
+            this.lastSync = lastSync;
         }
     }
-
 }
@@ -0,0 +1,239 @@
+package com.rinconj.dbupgrader;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A script directive, i.e. an instruction to the upgrader placed in a block comment in front of a statement. The
+ * directive is the line starting with <b>@name</b>, followed by arguments, up to the end of the comment e.g.
+ * <pre>
+ * /*
+ * --load from file data.csv
+ * &#64;batch "data.csv" ({header:true, cols:[{type:INTEGER}, {type:STRING}]})
+ * *&#47;
+ * insert into table1(col1, col2) values(:$batch_0, :$batch_1);
+ * </pre>
+ * Arguments are literal values: quoted strings, numbers, true/false, bare words, objects <code>{key:value,...}</code>
+ * and arrays <code>[value,...]</code>. Parentheses around a value are ignored.
+ */
+class Directive {
+    private final String name;
+    private final List<Object> args;
+    private final String sql;
+
+    Directive(String name, List<Object> args, String sql) {
+        this.name = name;
+        this.args = args;
+        this.sql = sql;
+    }
+
+    /**
+     * Extracts the directive of the given statement.
+     *
+     * @param stmt a statement as returned by {@link StatementIterator}
+     * @return the directive, or null if the statement has none
+     */
+    static Directive parse(String stmt) {
+        if (stmt.indexOf('@') < 0) return null;
+        int i = skipBlanks(stmt, 0);
+        String directive = null;
+        while (stmt.startsWith("/*", i)) {
+            int end = stmt.indexOf("*/", i + 2);
+            if (end < 0) return null;
+            if (directive == null) directive = findDirective(stmt.substring(i + 2, end));
+            i = skipBlanks(stmt, end + 2);
+        }
+        if (directive == null) return null;
+        int nameEnd = 1;
+        while (nameEnd < directive.length() && Character.isJavaIdentifierPart(directive.charAt(nameEnd))) nameEnd++;
+        String name = directive.substring(1, nameEnd);
+        List<Object> args = new ArgumentParser(directive, nameEnd).parseAll();
+        return new Directive(name, args, stmt.substring(i));
+    }
+
+    private static String findDirective(String comment) {
+        int lineStart = 0;
+        while (lineStart < comment.length()) {
+            int i = lineStart;
+            while (i < comment.length() && comment.charAt(i) != '\n' && Character.isWhitespace(comment.charAt(i))) i++;
+            if (i < comment.length() && comment.charAt(i) == '@') return comment.substring(i).trim();
+            int eol = comment.indexOf('\n', i);
+            if (eol < 0) break;
+            lineStart = eol + 1;
+        }
+        return null;
+    }
+
+    private static int skipBlanks(String s, int i) {
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
+        return i;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    List<Object> getArgs() {
+        return args;
+    }
+
+    /**
+     * @return the index-th argument, or null if missing
+     */
+    Object getArg(int index) {
+        return index < args.size() ? args.get(index) : null;
+    }
+
+    /**
+     * @return the first object argument, or an empty map if there is none
+     */
+    @SuppressWarnings("unchecked")
+    Map<String, Object> getOptions() {
+        for (Object arg : args)
+            if (arg instanceof Map) return (Map<String, Object>) arg;
+        return Collections.emptyMap();
+    }
+
+    /**
+     * @return the statement without the directive comment, possibly empty
+     */
+    String getSql() {
+        return sql;
+    }
+
+    @Override
+    public String toString() {
+        return "@" + name + " " + args;
+    }
+
+    static int intOption(Map<String, Object> options, String key, int defaultValue) {
+        Object value = options.get(key);
+        if (value == null) return defaultValue;
+        if (value instanceof Number) return ((Number) value).intValue();
+        throw new IllegalArgumentException("Invalid value for option " + key + ": " + value);
+    }
+
+    static boolean booleanOption(Map<String, Object> options, String key, boolean defaultValue) {
+        Object value = options.get(key);
+        if (value == null) return defaultValue;
+        if (value instanceof Boolean) return (Boolean) value;
+        throw new IllegalArgumentException("Invalid value for option " + key + ": " + value);
+    }
+
+    static String stringOption(Map<String, Object> options, String key, String defaultValue) {
+        Object value = options.get(key);
+        return value == null ? defaultValue : value.toString();
+    }
+
+    private static class ArgumentParser {
+        private final String text;
+        private int pos;
+
+        ArgumentParser(String text, int pos) {
+            this.text = text;
+            this.pos = pos;
+        }
+
+        List<Object> parseAll() {
+            List<Object> values = new ArrayList<Object>();
+            while (skipSeparators() < text.length()) values.add(parseValue());
+            return values;
+        }
+
+        private int skipSeparators() {
+            while (pos < text.length() && (Character.isWhitespace(text.charAt(pos)) || text.charAt(pos) == ',')) pos++;
+            return pos;
+        }
+
+        private Object parseValue() {
+            skipSeparators();
+            if (pos >= text.length()) throw error("value expected");
+            char c = text.charAt(pos);
+            switch (c) {
+                case '(': {
+                    pos++;
+                    Object value = parseValue();
+                    expect(')');
+                    return value;
+                }
+                case '{':
+                    return parseObject();
+                case '[':
+                    return parseArray();
+                case '\'':
+                case '"':
+                    return parseString(c);
+                default:
+                    return parseWord();
+            }
+        }
+
+        private Map<String, Object> parseObject() {
+            pos++;
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            while (skipSeparators() < text.length() && text.charAt(pos) != '}') {
+                char c = text.charAt(pos);
+                String key = c == '\'' || c == '"' ? parseString(c) : parseWord().toString();
+                expect(':');
+                map.put(key, parseValue());
+            }
+            expect('}');
+            return map;
+        }
+
+        private List<Object> parseArray() {
+            pos++;
+            List<Object> list = new ArrayList<Object>();
+            while (skipSeparators() < text.length() && text.charAt(pos) != ']') list.add(parseValue());
+            expect(']');
+            return list;
+        }
+
+        private String parseString(char quote) {
+            StringBuilder sb = new StringBuilder();
+            for (pos++; pos < text.length(); pos++) {
+                char c = text.charAt(pos);
+                if (c == '\\' && pos + 1 < text.length()) {
+                    sb.append(text.charAt(++pos));
+                } else if (c == quote) {
+                    pos++;
+                    return sb.toString();
+                } else {
+                    sb.append(c);
+                }
+            }
+            throw error("unterminated string");
+        }
+
+        private Object parseWord() {
+            int start = pos;
+            while (pos < text.length() && "{}[]():,'\"".indexOf(text.charAt(pos)) < 0 && !Character.isWhitespace(text.charAt(pos)))
+                pos++;
+            if (start == pos) throw error("unexpected character '" + text.charAt(pos) + "'");
+            String word = text.substring(start, pos);
+            if (word.equals("true") || word.equals("false")) return Boolean.valueOf(word);
+            if (word.equals("null")) return null;
+            if (word.matches("-?\\d+")) return Long.valueOf(word);
+            if (word.matches("-?\\d*\\.\\d+")) return new BigDecimal(word);
+            return word;
+        }
+
+        private void expect(char c) {
+            skipBlanksOnly();
+            if (pos >= text.length() || text.charAt(pos) != c) throw error("'" + c + "' expected");
+            pos++;
+        }
+
+        private void skipBlanksOnly() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) pos++;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("Invalid directive " + text + ": " + message + " at position " + pos);
+        }
+    }
+}
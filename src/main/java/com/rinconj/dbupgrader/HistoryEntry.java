@@ -0,0 +1,82 @@
+package com.rinconj.dbupgrader;
+
+import java.sql.Timestamp;
+
+/**
+ * A script applied to the database, as recorded in the history table.
+ */
+public class HistoryEntry {
+    private final int fromVersion;
+    private final int toVersion;
+    private final String script;
+    private final String hash;
+    private final int statements;
+    private final long rows;
+    private final long durationMillis;
+    private final Timestamp applied;
+    private final String stamp;
+
+    HistoryEntry(int fromVersion, int toVersion, String script, String hash, int statements, long rows, long durationMillis,
+                 Timestamp applied, String stamp) {
+        this.fromVersion = fromVersion;
+        this.toVersion = toVersion;
+        this.script = script;
+        this.hash = hash;
+        this.statements = statements;
+        this.rows = rows;
+        this.durationMillis = durationMillis;
+        this.applied = applied;
+        this.stamp = stamp;
+    }
+
+    /**
+     * @return the version before the step, -1 for the current scripts applied to an empty database
+     */
+    public int getFromVersion() {
+        return fromVersion;
+    }
+
+    public int getToVersion() {
+        return toVersion;
+    }
+
+    public String getScript() {
+        return script;
+    }
+
+    /**
+     * @return the hex encoded SHA-256 hash of the script content
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    public int getStatements() {
+        return statements;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public Timestamp getApplied() {
+        return applied;
+    }
+
+    /**
+     * @return the size and modification time of the script when applied or last verified, or null if unknown
+     */
+    String getStamp() {
+        return stamp;
+    }
+
+    @Override
+    public String toString() {
+        return script + " (" + fromVersion + " -> " + toVersion + "): " + statements + " statement(s), " + rows + " row(s) in "
+                + durationMillis + "ms on " + applied;
+    }
+}
@@ -0,0 +1,75 @@
+package com.rinconj.dbupgrader;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+class JdbcUtils {
+
+    /**
+     * Returns the first column of the first row and closes the result set.
+     */
+    public static <T> T collectFirst(ResultSet rs, T defaultValue) throws SQLException {
+        try {
+            if (!rs.next()) return defaultValue;
+            return (T) rs.getObject(1);
+        } finally {
+            rs.close();
+        }
+    }
+
+    /**
+     * Executes the query with a statement from the cache and returns the first column of the first row.
+     */
+    public static <T> T queryFirst(StatementCache cache, String sql, T defaultValue, Object... args) {
+        try {
+            PreparedStatement ps = cache.prepare(sql);
+            bind(ps, args);
+            return collectFirst(ps.executeQuery(), defaultValue);
+        } catch (SQLException e) {
+            throw new RuntimeException("failed executing query :" + sql, e);
+        }
+    }
+
+    /**
+     * Executes the sql with a statement from the cache.
+     *
+     * @return the update count
+     */
+    public static int executeSql(StatementCache cache, String sql, Object... args) {
+        try {
+            PreparedStatement ps = cache.prepare(sql);
+            bind(ps, args);
+            return ps.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException("failed executing query :" + sql, e);
+        }
+    }
+
+    public static void executeSql(Connection conn, String sql, Object... args) {
+        try {
+            PreparedStatement ps = conn.prepareStatement(sql);
+            try {
+                bind(ps, args);
+                ps.execute();
+            } finally {
+                ps.close();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("failed executing query :" + sql, e);
+        }
+    }
+
+    private static void bind(PreparedStatement ps, Object... args) throws SQLException {
+        int i = 0;
+        for (Object arg : args) {
+            if (arg == null)
+                ps.setNull(++i, Types.CHAR);
+            else
+                ps.setObject(++i, arg);
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.rinconj.dbupgrader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.security.MessageDigest;
+
+/**
+ * Reader of a file through memory mapped windows of the file, decoding the bytes straight into the caller's buffer.
+ * The file content is never copied to the heap, so the memory used doesn't depend on the file size. Malformed input
+ * is replaced, like {@link java.io.InputStreamReader} does. The bytes can be hashed as they are decoded, so the
+ * content hash of the file is known, without another pass, once it has been read to the end.
+ */
+class MappedFileReader extends Reader {
+    static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long size;
+    private final int windowSize;
+    private final CharsetDecoder decoder;
+    private final MessageDigest digest;
+    private MappedByteBuffer window;
+    //file position of the window start
+    private long windowStart;
+    private boolean eof;
+
+    MappedFileReader(File file, Charset charset) throws IOException {
+        this(file, charset, DEFAULT_WINDOW_SIZE, null);
+    }
+
+    /**
+     * @param digest digest to update with the bytes of the file as they are decoded, or null
+     */
+    MappedFileReader(File file, Charset charset, int windowSize, MessageDigest digest) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        this.channel = this.file.getChannel();
+        this.size = channel.size();
+        if (windowSize < 16) throw new IllegalArgumentException("Invalid window size: " + windowSize);
+        this.windowSize = windowSize;
+        this.digest = digest;
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (eof) return -1;
+        if (len == 0) return 0;
+        CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+        while (out.position() == off) {
+            if (window == null) map(0);
+            boolean last = windowStart + window.limit() == size;
+            int decoded = window.position();
+            boolean overflow = decoder.decode(window, out, last).isOverflow();
+            if (digest != null) {
+                ByteBuffer bytes = window.duplicate();
+                bytes.limit(bytes.position()).position(decoded);
+                digest.update(bytes);
+            }
+            if (overflow) break;
+            if (!last) {
+                //the window is decoded, except for a character split with the next window
+                map(windowStart + window.position());
+            } else {
+                decoder.flush(out);
+                eof = true;
+                break;
+            }
+        }
+        int count = out.position() - off;
+        return count == 0 ? -1 : count;
+    }
+
+    private void map(long position) throws IOException {
+        windowStart = position;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(windowSize, size - position));
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        file.close();
+    }
+}
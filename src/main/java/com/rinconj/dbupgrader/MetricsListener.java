@@ -0,0 +1,62 @@
+package com.rinconj.dbupgrader;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Listener forwarding the timings to a metrics registry, through a {@link Recorder} adapter. With Micrometer it can
+ * be plugged as:
+ * <pre>
+ * upgrader.addListener(new MetricsListener((name, tags, nanos) -&gt;
+ *     registry.timer(name, Tags.of(tags.entrySet()...)).record(nanos, TimeUnit.NANOSECONDS)));
+ * </pre>
+ * The timers are <b>dbupgrader.version</b> (tags from, to), <b>dbupgrader.script</b> (tag resource) and
+ * <b>dbupgrader.statement</b> (tags resource, type, outcome).
+ */
+public class MetricsListener implements UpgradeListener {
+    public static final String VERSION_TIMER = "dbupgrader.version";
+    public static final String SCRIPT_TIMER = "dbupgrader.script";
+    public static final String STATEMENT_TIMER = "dbupgrader.statement";
+    public static final String ROWS_COUNTER = "dbupgrader.rows";
+
+    /**
+     * Adapter to the metrics registry
+     */
+    public interface Recorder {
+        void recordTimer(String name, Map<String, String> tags, long nanos);
+
+        default void recordCount(String name, Map<String, String> tags, long count) {
+        }
+    }
+
+    private final Recorder recorder;
+
+    public MetricsListener(Recorder recorder) {
+        this.recorder = recorder;
+    }
+
+    public void versionFinished(int fromVersion, int toVersion, long nanos) {
+        recorder.recordTimer(VERSION_TIMER, tags("from", String.valueOf(fromVersion), "to", String.valueOf(toVersion)), nanos);
+    }
+
+    public void scriptFinished(String resource, int statements, long nanos) {
+        recorder.recordTimer(SCRIPT_TIMER, tags("resource", resource), nanos);
+    }
+
+    public void statementFinished(String resource, int ordinal, String sql, long updateCount, long nanos) {
+        Map<String, String> tags = tags("resource", resource, "type", StatementType.of(sql).name(), "outcome", "success");
+        recorder.recordTimer(STATEMENT_TIMER, tags, nanos);
+        if (updateCount > 0) recorder.recordCount(ROWS_COUNTER, tags, updateCount);
+    }
+
+    public void statementFailed(String resource, int ordinal, String sql, SQLException error, long nanos) {
+        recorder.recordTimer(STATEMENT_TIMER, tags("resource", resource, "type", StatementType.of(sql).name(), "outcome", "failure"), nanos);
+    }
+
+    private static Map<String, String> tags(String... keyValues) {
+        Map<String, String> tags = new LinkedHashMap<String, String>();
+        for (int i = 0; i < keyValues.length; i += 2) tags.put(keyValues[i], keyValues[i + 1]);
+        return tags;
+    }
+}
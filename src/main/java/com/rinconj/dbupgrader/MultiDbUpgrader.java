@@ -0,0 +1,233 @@
+package com.rinconj.dbupgrader;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Upgrades many databases or schemas (e.g. one per tenant) to the same version at the same time. Every target is
+ * upgraded by its own {@link DbUpgrader}, on a bounded number of threads (virtual threads when the JVM supports
+ * them). The scripts are read and parsed once and shared by all the targets, see {@link ScriptRepository}.
+ * <pre>
+ *     MultiDbUpgrader upgrader = new MultiDbUpgrader("prod");
+ *     for (String tenant : tenants) upgrader.addTarget(dataSource, tenant);
+ *     UpgradeReport report = upgrader.syncToVersion(DB_VERSION, false, true);
+ * </pre>
+ */
+public class MultiDbUpgrader {
+    private final static Logger LOGGER = Logger.getLogger(MultiDbUpgrader.class.getName());
+
+    private final String environment;
+    private final List<Target> targets = new ArrayList<Target>();
+
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int maxConcurrentPerDataSource = Integer.MAX_VALUE;
+    private boolean failFast = true;
+    private boolean virtualThreads = true;
+
+    public MultiDbUpgrader(String environment) {
+        if (environment == null) throw new IllegalArgumentException("invalid environment specified!");
+        this.environment = environment;
+    }
+
+    /**
+     * Adds the default schema of the given data source.
+     *
+     * @return the upgrader of the target, for further customisation
+     */
+    public DbUpgrader addTarget(DataSource dataSource) {
+        return addTarget(dataSource, "default");
+    }
+
+    /**
+     * Adds a target identified by the given schema id in the version table of the data source.
+     *
+     * @return the upgrader of the target, for further customisation
+     */
+    public DbUpgrader addTarget(DataSource dataSource, String schemaId) {
+        DbUpgrader upgrader = new DbUpgrader(dataSource, environment);
+        upgrader.setSchemaId(schemaId);
+        addTarget(schemaId, upgrader);
+        return upgrader;
+    }
+
+    /**
+     * Adds an already configured upgrader.
+     *
+     * @param name the target name used in the report
+     * @param upgrader
+     */
+    public void addTarget(String name, DbUpgrader upgrader) {
+        targets.add(new Target(name, upgrader));
+    }
+
+    /**
+     * Upgrades/downgrades all the targets as {@link DbUpgrader#syncToVersion(int, boolean, boolean)} does.
+     *
+     * @return the result of every target. When fail fast is enabled, targets not started before the first failure
+     * are reported as skipped.
+     */
+    public UpgradeReport syncToVersion(final int version, final boolean allowDowngrade, final boolean emptyDb) throws InterruptedException {
+        long start = System.nanoTime();
+        final Semaphore permits = new Semaphore(parallelism);
+        //targets queued by data source: every data source gets at most maxConcurrentPerDataSource workers, so no
+        //thread nor global permit is held while waiting for a busy data source
+        final Map<DataSource, Queue<Integer>> queues = new IdentityHashMap<DataSource, Queue<Integer>>();
+        List<Queue<Integer>> dataSourceQueues = new ArrayList<Queue<Integer>>();
+        for (int i = 0; i < targets.size(); i++) {
+            Queue<Integer> queue = queues.get(targets.get(i).upgrader.getDataSource());
+            if (queue == null) {
+                queues.put(targets.get(i).upgrader.getDataSource(), queue = new ConcurrentLinkedQueue<Integer>());
+                dataSourceQueues.add(queue);
+            }
+            queue.add(i);
+        }
+        int[] sizes = new int[dataSourceQueues.size()];
+        for (int ds = 0; ds < sizes.length; ds++) sizes[ds] = dataSourceQueues.get(ds).size();
+        final UpgradeReport.TargetResult[] results = new UpgradeReport.TargetResult[targets.size()];
+        final AtomicBoolean failed = new AtomicBoolean();
+        ExecutorService executor = newExecutor();
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        try {
+            //one worker per data source at a time, so that the first threads are spread over the data sources
+            for (int worker = 0; worker < maxConcurrentPerDataSource; worker++) {
+                boolean submitted = false;
+                for (int ds = 0; ds < dataSourceQueues.size(); ds++) {
+                    if (worker >= sizes[ds]) continue;
+                    final Queue<Integer> queue = dataSourceQueues.get(ds);
+                    submitted = true;
+                    futures.add(executor.submit(new Callable<Void>() {
+                        public Void call() throws Exception {
+                            for (Integer i; (i = queue.poll()) != null; )
+                                results[i] = upgrade(targets.get(i), version, allowDowngrade, emptyDb, permits, failed);
+                            return null;
+                        }
+                    }));
+                }
+                if (!submitted) break;
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Unexpected upgrade task failure", e.getCause());
+                }
+            }
+            UpgradeReport report = new UpgradeReport(Arrays.asList(results), System.nanoTime() - start);
+            LOGGER.info(report.toString());
+            return report;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private UpgradeReport.TargetResult upgrade(Target target, int version, boolean allowDowngrade, boolean emptyDb, Semaphore permits, AtomicBoolean failed) throws InterruptedException {
+        if (failFast && failed.get()) return skipped(target);
+        permits.acquire();
+        try {
+            if (failFast && failed.get()) return skipped(target);
+            return upgrade(target, version, allowDowngrade, emptyDb, failed);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private UpgradeReport.TargetResult upgrade(Target target, int version, boolean allowDowngrade, boolean emptyDb, AtomicBoolean failed) {
+        long start = System.nanoTime();
+        try {
+            target.upgrader.syncToVersion(version, allowDowngrade, emptyDb);
+            return new UpgradeReport.TargetResult(target.name, UpgradeReport.Status.SUCCESS, System.nanoTime() - start, null);
+        } catch (Exception e) {
+            failed.set(true);
+            LOGGER.log(Level.SEVERE, "Failed upgrading " + target.name, e);
+            return new UpgradeReport.TargetResult(target.name, UpgradeReport.Status.FAILED, System.nanoTime() - start, e);
+        }
+    }
+
+    private static UpgradeReport.TargetResult skipped(Target target) {
+        return new UpgradeReport.TargetResult(target.name, UpgradeReport.Status.SKIPPED, 0, null);
+    }
+
+    private ExecutorService newExecutor() {
+        if (virtualThreads) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (Exception e) {
+                LOGGER.fine("virtual threads not available, using a fixed thread pool");
+            }
+        }
+        return Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, targets.size())));
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @param parallelism maximum number of targets upgraded at the same time. Defaults to the number of processors.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("invalid parallelism " + parallelism);
+        this.parallelism = parallelism;
+    }
+
+    public int getMaxConcurrentPerDataSource() {
+        return maxConcurrentPerDataSource;
+    }
+
+    /**
+     * @param maxConcurrentPerDataSource maximum number of targets of the same data source upgraded at the same time,
+     *                                   so that a single database server isn't overloaded. Unlimited by default.
+     */
+    public void setMaxConcurrentPerDataSource(int maxConcurrentPerDataSource) {
+        if (maxConcurrentPerDataSource < 1) throw new IllegalArgumentException("invalid limit " + maxConcurrentPerDataSource);
+        this.maxConcurrentPerDataSource = maxConcurrentPerDataSource;
+    }
+
+    public boolean isFailFast() {
+        return failFast;
+    }
+
+    /**
+     * @param failFast true (default) to skip the targets not yet started after the first failure, false to upgrade
+     *                 every target regardless of failures.
+     */
+    public void setFailFast(boolean failFast) {
+        this.failFast = failFast;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * @param virtualThreads true (default) to use virtual threads when available (Java 21+)
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    private static class Target {
+        final String name;
+        final DbUpgrader upgrader;
+
+        Target(String name, DbUpgrader upgrader) {
+            this.name = name;
+            this.upgrader = upgrader;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.rinconj.dbupgrader;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Statements of a script region marked with the <b>@parallel</b> directive, which don't depend on each other and can
+ * run at the same time, e.g. index creations:
+ * <pre>
+ * /* &#64;parallel {threads:4} *&#47;
+ * create index idx1 on table1(col1);
+ * create index idx2 on table2(col1);
+ * ...
+ * /* &#64;end *&#47;
+ * </pre>
+ * The region ends at the <b>@end</b> directive or the end of the script. Its statements are executed by up to
+ * <i>threads</i> workers, each on its own connection of the data source, and the region completes when all of them
+ * finished. After the first failure no more statements are started.
+ */
+class ParallelRegion {
+    static final String DIRECTIVE = "parallel";
+    static final String END_DIRECTIVE = "end";
+    static final int DEFAULT_THREADS = 4;
+    private final static Logger LOGGER = Logger.getLogger(ParallelRegion.class.getName());
+
+    private final DataSource dataSource;
+    private final String resource;
+    private final UpgradeListener listener;
+    private final StatementWatchdog watchdog;
+    private final int threads;
+    private final List<String> statements = new ArrayList<String>();
+    private final List<Integer> ordinals = new ArrayList<Integer>();
+    private final AtomicLong rows = new AtomicLong();
+
+    ParallelRegion(DataSource dataSource, String resource, UpgradeListener listener, StatementWatchdog watchdog, int threads) {
+        if (threads < 1) throw new IllegalArgumentException("Invalid number of threads: " + threads);
+        this.dataSource = dataSource;
+        this.resource = resource;
+        this.listener = listener;
+        this.watchdog = watchdog;
+        this.threads = threads;
+    }
+
+    void add(String sql, int ordinal) {
+        statements.add(sql);
+        ordinals.add(ordinal);
+    }
+
+    int size() {
+        return statements.size();
+    }
+
+    /**
+     * Executes the statements and waits for all of them to finish.
+     *
+     * @return the number of rows affected
+     * @throws SQLException the first failure
+     */
+    long execute() throws SQLException {
+        if (statements.isEmpty()) return 0;
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicReference<SQLException> failure = new AtomicReference<SQLException>();
+        int workers = Math.min(threads, statements.size());
+        LOGGER.info("Executing " + statements.size() + " statement(s) of " + resource + " in " + workers + " thread(s)");
+        List<Thread> running = new ArrayList<Thread>(workers);
+        for (int i = 0; i < workers; i++) {
+            Thread worker = new Thread(new Runnable() {
+                public void run() {
+                    work(next, failure);
+                }
+            }, "dbupgrader-parallel-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            running.add(worker);
+        }
+        try {
+            for (Thread worker : running) worker.join();
+        } catch (InterruptedException e) {
+            //let the workers finish the current statements, they won't start new ones
+            failure.compareAndSet(null, new SQLException("Interrupted executing parallel statements of " + resource));
+            Thread.currentThread().interrupt();
+        }
+        if (failure.get() != null) throw failure.get();
+        return rows.get();
+    }
+
+    private void work(AtomicInteger next, AtomicReference<SQLException> failure) {
+        Connection conn = null;
+        try {
+            conn = dataSource.getConnection();
+            for (int i = next.getAndIncrement(); i < statements.size() && failure.get() == null; i = next.getAndIncrement()) {
+                execStatement(conn, statements.get(i), ordinals.get(i));
+            }
+        } catch (SQLException e) {
+            failure.compareAndSet(null, e);
+        } catch (RuntimeException e) {
+            failure.compareAndSet(null, new SQLException("Failed executing parallel statements of " + resource, e));
+        } finally {
+            if (conn != null) try {
+                conn.close();
+            } catch (SQLException e) {
+            }
+        }
+    }
+
+    private void execStatement(Connection conn, String sql, int ordinal) throws SQLException {
+        listener.statementStarted(resource, ordinal, sql);
+        long start = System.nanoTime();
+        Statement statement = null;
+        try {
+            LOGGER.fine("executing: " + sql);
+            statement = conn.createStatement();
+            StatementWatchdog.Execution execution = watchdog.start(statement, resource, ordinal, sql);
+            boolean hasResult;
+            try {
+                hasResult = statement.execute(sql);
+            } catch (SQLException e) {
+                throw watchdog.failed(execution, e);
+            }
+            watchdog.finish(execution);
+            long updateCount = hasResult ? -1 : statement.getUpdateCount();
+            if (updateCount > 0) rows.addAndGet(updateCount);
+            listener.statementFinished(resource, ordinal, sql, updateCount, System.nanoTime() - start);
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Failed executing statement #" + ordinal + " of " + resource + ":" + sql, e);
+            listener.statementFailed(resource, ordinal, sql, e, System.nanoTime() - start);
+            throw e;
+        } finally {
+            if (statement != null) statement.close();
+        }
+    }
+}
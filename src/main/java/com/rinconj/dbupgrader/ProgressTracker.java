@@ -0,0 +1,184 @@
+package com.rinconj.dbupgrader;
+
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+import static com.rinconj.dbupgrader.JdbcUtils.executeSql;
+import static java.lang.String.format;
+
+/**
+ * Records the progress of the version step being executed in a progress table, one row per schema id: the script and
+ * ordinal of the last completed statement, and a rolling hash of all the statements of the script up to it. When a
+ * step is interrupted, the next sync of the same step resumes after the last completed statement, provided the
+ * script didn't change. The row is deleted when the step completes.
+ * <p>
+ * Statements run in chunks (see {@link ChunkedUpdate}) also record the last key of their last completed chunk, and
+ * the hash up to the statement itself, so they resume after it unless the statement changed.
+ */
+class ProgressTracker {
+    private final static Logger LOGGER = Logger.getLogger(ProgressTracker.class.getName());
+    private static final String CREATE_PROGRESS_TABLE_SQL = "CREATE TABLE %s(id varchar(100) NOT NULL, from_version INTEGER NOT NULL, " +
+            "to_version INTEGER NOT NULL, script varchar(255) NOT NULL, ordinal INTEGER NOT NULL, hash BIGINT NOT NULL, " +
+            "updated TIMESTAMP, chunk_key BIGINT, chunk_hash BIGINT, PRIMARY KEY (id))";
+    private static final String SELECT_PROGRESS_SQL = "SELECT from_version, to_version, script, ordinal, hash, chunk_key, chunk_hash FROM %s WHERE id=?";
+    private static final String UPDATE_PROGRESS_SQL = "UPDATE %s SET from_version=?, to_version=?, script=?, ordinal=?, hash=?, updated=?, chunk_key=NULL, chunk_hash=NULL WHERE id=?";
+    private static final String INSERT_PROGRESS_SQL = "INSERT INTO %s(from_version, to_version, script, ordinal, hash, updated, id) values(?,?,?,?,?,?,?)";
+    private static final String UPDATE_CHUNK_SQL = "UPDATE %s SET from_version=?, to_version=?, script=?, ordinal=?, hash=?, updated=?, chunk_key=?, chunk_hash=? WHERE id=?";
+    private static final String INSERT_CHUNK_SQL = "INSERT INTO %s(from_version, to_version, script, ordinal, hash, updated, chunk_key, chunk_hash, id) values(?,?,?,?,?,?,?,?,?)";
+    private static final String DELETE_PROGRESS_SQL = "DELETE FROM %s WHERE id=?";
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final StatementCache cache;
+    private final String table;
+    private final String schemaId;
+
+    private int fromVersion;
+    private int toVersion;
+    private String[] scripts;
+    //checkpoint of the current step, if any
+    private int resumeScript = -1;
+    private int resumeOrdinal;
+    private long resumeHash;
+    private Long resumeChunkKey;
+    private long resumeChunkHash;
+    private boolean saved;
+
+    ProgressTracker(StatementCache cache, String table, String schemaId) {
+        this.cache = cache;
+        this.table = table;
+        this.schemaId = schemaId;
+    }
+
+    void createTableIfMissing(DatabaseMetaData metaData) throws SQLException {
+        ResultSet rs = metaData.getTables(null, null, table, null);
+        try {
+            if (rs.next()) return;
+        } finally {
+            rs.close();
+        }
+        executeSql(cache.getConnection(), format(CREATE_PROGRESS_TABLE_SQL, table));
+    }
+
+    /**
+     * Starts tracking a version step, loading its checkpoint if it was interrupted.
+     *
+     * @param scripts the scripts of the step, in execution order
+     */
+    void startStep(int fromVersion, int toVersion, String... scripts) throws SQLException {
+        this.fromVersion = fromVersion;
+        this.toVersion = toVersion;
+        this.scripts = scripts;
+        this.resumeScript = -1;
+        this.resumeChunkKey = null;
+        PreparedStatement ps = cache.prepare(format(SELECT_PROGRESS_SQL, table));
+        ps.setString(1, schemaId);
+        ResultSet rs = ps.executeQuery();
+        try {
+            saved = rs.next();
+            if (saved && rs.getInt(1) == fromVersion && rs.getInt(2) == toVersion) {
+                resumeScript = Arrays.asList(scripts).indexOf(rs.getString(3));
+                resumeOrdinal = rs.getInt(4);
+                resumeHash = rs.getLong(5);
+                long chunkKey = rs.getLong(6);
+                resumeChunkKey = rs.wasNull() ? null : chunkKey;
+                resumeChunkHash = rs.getLong(7);
+                if (resumeScript >= 0)
+                    LOGGER.info(format("Resuming upgrade from %d to %d after statement #%d of %s", fromVersion, toVersion, resumeOrdinal, scripts[resumeScript]));
+            }
+        } finally {
+            rs.close();
+        }
+    }
+
+    /**
+     * @return true if the script completed in an interrupted run of the step
+     */
+    boolean isCompleted(String script) {
+        int index = Arrays.asList(scripts).indexOf(script);
+        return index >= 0 && index < resumeScript;
+    }
+
+    /**
+     * @return the ordinal of the last completed statement of the script in an interrupted run, or 0
+     */
+    int getResumeOrdinal(String script) {
+        return resumeScript >= 0 && scripts[resumeScript].equals(script) ? resumeOrdinal : 0;
+    }
+
+    /**
+     * @return the hash of the statements up to {@link #getResumeOrdinal(String)}
+     */
+    long getResumeHash() {
+        return resumeHash;
+    }
+
+    /**
+     * @param ordinal the ordinal of a statement run in chunks
+     * @param hash    the hash of the statements up to it
+     * @return the last key of the last completed chunk of the statement in an interrupted run, or null if there's
+     * none or the statement changed since
+     */
+    Long getResumeChunkKey(String script, int ordinal, long hash) {
+        if (resumeScript < 0 || !scripts[resumeScript].equals(script) || resumeOrdinal != ordinal - 1 || resumeChunkKey == null)
+            return null;
+        if (resumeChunkHash == hash) return resumeChunkKey;
+        LOGGER.warning(format("Statement #%d of %s changed since its interrupted run, restarting its chunks from the minimum key", ordinal, script));
+        return null;
+    }
+
+    /**
+     * Records that the statements of the script up to the given ordinal completed.
+     */
+    void checkpoint(String script, int ordinal, long hash) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        if (saved && executeSql(cache, format(UPDATE_PROGRESS_SQL, table), fromVersion, toVersion, script, ordinal, hash, now, schemaId) > 0)
+            return;
+        executeSql(cache, format(INSERT_PROGRESS_SQL, table), fromVersion, toVersion, script, ordinal, hash, now, schemaId);
+        saved = true;
+    }
+
+    /**
+     * Records that the statements of the script up to the given ordinal completed, and the chunks of the next one up
+     * to the given key.
+     *
+     * @param chunkHash the hash of the statements up to the one run in chunks
+     */
+    void checkpointChunk(String script, int ordinal, long hash, long chunkKey, long chunkHash) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        if (saved && executeSql(cache, format(UPDATE_CHUNK_SQL, table), fromVersion, toVersion, script, ordinal, hash, now, chunkKey, chunkHash, schemaId) > 0)
+            return;
+        executeSql(cache, format(INSERT_CHUNK_SQL, table), fromVersion, toVersion, script, ordinal, hash, now, chunkKey, chunkHash, schemaId);
+        saved = true;
+    }
+
+    /**
+     * Removes the checkpoint of the completed step.
+     */
+    void finishStep() {
+        if (saved) executeSql(cache, format(DELETE_PROGRESS_SQL, table), schemaId);
+        saved = false;
+        resumeScript = -1;
+        resumeChunkKey = null;
+    }
+
+    /**
+     * @return the hash of the statements up to the given statement, from the hash up to the previous one (0 for the
+     * first statement)
+     */
+    static long hash(long previous, CharSequence stmt) {
+        long hash = previous == 0 ? FNV_OFFSET : previous;
+        for (int i = 0; i < stmt.length(); i++) {
+            hash ^= stmt.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        //statement boundary
+        hash ^= 0xff;
+        return hash * FNV_PRIME;
+    }
+}
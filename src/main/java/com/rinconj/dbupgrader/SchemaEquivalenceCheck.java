@@ -0,0 +1,112 @@
+package com.rinconj.dbupgrader;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Checks that the <b>current.sql</b> scripts, applied to empty databases by
+ * {@link DbUpgrader#syncToVersion(int, boolean, boolean)}, create the same schema as the upgrade scripts of all the
+ * versions. Both schemas are built at the same time on two new databases, and compared as described by their JDBC
+ * metadata: tables, views, columns, primary keys, indexes and foreign keys.
+ * <pre>
+ *     SchemaEquivalenceCheck check = new SchemaEquivalenceCheck(ValidationMatrix.h2InMemory(), "dev");
+ *     List&lt;String&gt; differences = check.compare(DB_VERSION);
+ * </pre>
+ * The tables of the upgrader itself (version, progress, history and lock tables) are ignored. Upgraders are created
+ * by {@link #newUpgrader(DataSource, String)}, which can be overridden to customise them.
+ */
+public class SchemaEquivalenceCheck {
+    private final static Logger LOGGER = Logger.getLogger(SchemaEquivalenceCheck.class.getName());
+    private static final AtomicInteger RUNS = new AtomicInteger();
+
+    private final ValidationMatrix.DatabaseFactory factory;
+    private final String environment;
+
+    public SchemaEquivalenceCheck(ValidationMatrix.DatabaseFactory factory, String environment) {
+        if (factory == null) throw new IllegalArgumentException("null database factory provided");
+        if (environment == null) throw new IllegalArgumentException("invalid environment specified!");
+        this.factory = factory;
+        this.environment = environment;
+    }
+
+    /**
+     * Builds the schema of the given version from the current scripts and from the upgrade scripts, and compares them.
+     *
+     * @return the differences, e.g. <i>column T1.C2: INTEGER(10,0) in current.sql, BIGINT(19,0) in upgrades</i>, or an
+     * empty list if the schemas are equivalent
+     * @throws Exception if any of the schemas couldn't be built
+     */
+    public List<String> compare(int version) throws Exception {
+        String prefix = "equivalence" + RUNS.incrementAndGet() + "_" + environment;
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<SchemaSnapshot> current = executor.submit(new Build(prefix + "_current", version, true));
+            Future<SchemaSnapshot> upgraded = executor.submit(new Build(prefix + "_upgrades", version, false));
+            List<String> differences = get(current).compare(get(upgraded), "current.sql", "upgrades");
+            LOGGER.info(differences.isEmpty() ? "current.sql is equivalent to the upgrades up to version " + version
+                    : differences.size() + " difference(s) between current.sql and the upgrades up to version " + version + ": " + differences);
+            return differences;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static SchemaSnapshot get(Future<SchemaSnapshot> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Creates the upgrader of a database of the check.
+     */
+    protected DbUpgrader newUpgrader(DataSource dataSource, String environment) {
+        return new DbUpgrader(dataSource, environment);
+    }
+
+    /**
+     * Syncs a new database to the version, from the current scripts or through all the upgrades, and reads its schema.
+     */
+    private class Build implements Callable<SchemaSnapshot> {
+        private final String name;
+        private final int version;
+        private final boolean fromCurrent;
+
+        Build(String name, int version, boolean fromCurrent) {
+            this.name = name;
+            this.version = version;
+            this.fromCurrent = fromCurrent;
+        }
+
+        public SchemaSnapshot call() throws Exception {
+            DataSource dataSource = factory.create(name);
+            try {
+                DbUpgrader upgrader = newUpgrader(dataSource, environment);
+                upgrader.syncToVersion(version, false, fromCurrent);
+                Connection conn = dataSource.getConnection();
+                try {
+                    return SchemaSnapshot.read(conn, upgrader.getUpgraderTables());
+                } finally {
+                    conn.close();
+                }
+            } finally {
+                try {
+                    factory.drop(dataSource);
+                } catch (SQLException e) {
+                    LOGGER.warning("Failed dropping database " + name + ": " + e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.rinconj.dbupgrader;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * The structure of the tables and views of a schema, read from the JDBC metadata: columns with their type, size,
+ * nullability and default, primary keys, indexes and foreign keys. Every object is described by a line, keyed so that
+ * generated names (e.g. of indexes and constraints) don't matter: indexes and foreign keys are identified by their
+ * table and columns (the indexes on the same columns are described together), and the defaults of identity columns
+ * are described as <i>identity</i> whatever their generated sequence. Check constraints, triggers and
+ * routines aren't covered by the JDBC metadata.
+ */
+class SchemaSnapshot {
+    private static final String[] TABLE_TYPES = {"TABLE", "VIEW"};
+    //defaults of identity columns, with a sequence named differently in every database e.g. H2 system sequences
+    private static final Pattern GENERATED_SEQUENCE_DEFAULT = Pattern.compile("(?i)\\(?\\s*NEXT VALUE FOR \\S*SYSTEM_SEQUENCE_\\w+\\s*\\)?");
+
+    private final SortedMap<String, String> objects;
+
+    SchemaSnapshot(SortedMap<String, String> objects) {
+        this.objects = objects;
+    }
+
+    /**
+     * Reads the current schema of the connection.
+     *
+     * @param excludedTables tables to ignore (case insensitive)
+     */
+    static SchemaSnapshot read(Connection conn, Collection<String> excludedTables) throws SQLException {
+        DatabaseMetaData metaData = conn.getMetaData();
+        String schema = currentSchema(conn);
+        Set<String> excluded = new HashSet<String>();
+        for (String table : excludedTables) excluded.add(table.toUpperCase(Locale.ROOT));
+        SortedMap<String, String> objects = new TreeMap<String, String>();
+        List<String> tables = new ArrayList<String>();
+        String escape = metaData.getSearchStringEscape();
+        ResultSet rs = metaData.getTables(null, escape(schema, escape), "%", TABLE_TYPES);
+        try {
+            while (rs.next()) {
+                String table = rs.getString("TABLE_NAME");
+                if (excluded.contains(table.toUpperCase(Locale.ROOT))) continue;
+                tables.add(table);
+                objects.put(rs.getString("TABLE_TYPE").toLowerCase(Locale.ROOT) + " " + table, "");
+            }
+        } finally {
+            rs.close();
+        }
+        for (String table : tables) {
+            readColumns(metaData, schema, table, escape, objects);
+            readPrimaryKey(metaData, schema, table, objects);
+            readIndexes(metaData, schema, table, objects);
+            readForeignKeys(metaData, schema, table, objects);
+        }
+        return new SchemaSnapshot(objects);
+    }
+
+    private static String currentSchema(Connection conn) {
+        try {
+            return conn.getSchema();
+        } catch (Throwable e) {
+            //JDBC 4.0 drivers, all the schemas
+            return null;
+        }
+    }
+
+    /**
+     * Escapes the wildcards of a name used as a pattern, e.g. the underscore of <i>T_1</i>.
+     */
+    private static String escape(String name, String escape) {
+        if (name == null || escape == null || escape.isEmpty()) return name;
+        return name.replace(escape, escape + escape).replace("_", escape + "_").replace("%", escape + "%");
+    }
+
+    private static void readColumns(DatabaseMetaData metaData, String schema, String table, String escape, Map<String, String> objects) throws SQLException {
+        ResultSet rs = metaData.getColumns(null, escape(schema, escape), escape(table, escape), "%");
+        try {
+            while (rs.next()) {
+                //drivers ignoring the escape
+                if (!table.equals(rs.getString("TABLE_NAME"))) continue;
+                String type = rs.getString("TYPE_NAME") + "(" + rs.getInt("COLUMN_SIZE") + "," + rs.getInt("DECIMAL_DIGITS") + ")";
+                String nullable = rs.getInt("NULLABLE") == DatabaseMetaData.columnNoNulls ? " not null" : "";
+                String def = rs.getString("COLUMN_DEF");
+                if (def != null && GENERATED_SEQUENCE_DEFAULT.matcher(def.trim()).matches()) def = "identity";
+                objects.put("column " + table + "." + rs.getString("COLUMN_NAME"), type + nullable + (def == null ? "" : " default " + def));
+            }
+        } finally {
+            rs.close();
+        }
+    }
+
+    private static void readPrimaryKey(DatabaseMetaData metaData, String schema, String table, Map<String, String> objects) throws SQLException {
+        SortedMap<Integer, String> columns = new TreeMap<Integer, String>();
+        ResultSet rs = metaData.getPrimaryKeys(null, schema, table);
+        try {
+            while (rs.next())
+                if (table.equals(rs.getString("TABLE_NAME"))) columns.put(rs.getInt("KEY_SEQ"), rs.getString("COLUMN_NAME"));
+        } finally {
+            rs.close();
+        }
+        if (!columns.isEmpty()) objects.put("primary key " + table + columns.values(), "");
+    }
+
+    private static void readIndexes(DatabaseMetaData metaData, String schema, String table, Map<String, String> objects) throws SQLException {
+        //index name -> columns by position
+        Map<String, SortedMap<Integer, String>> indexes = new TreeMap<String, SortedMap<Integer, String>>();
+        Map<String, Boolean> unique = new TreeMap<String, Boolean>();
+        ResultSet rs = metaData.getIndexInfo(null, schema, table, false, false);
+        try {
+            while (rs.next()) {
+                String name = rs.getString("INDEX_NAME");
+                if (name == null || !table.equals(rs.getString("TABLE_NAME")) || rs.getShort("TYPE") == DatabaseMetaData.tableIndexStatistic) continue;
+                SortedMap<Integer, String> columns = indexes.get(name);
+                if (columns == null) indexes.put(name, columns = new TreeMap<Integer, String>());
+                String order = rs.getString("ASC_OR_DESC");
+                columns.put((int) rs.getShort("ORDINAL_POSITION"), rs.getString("COLUMN_NAME") + ("D".equals(order) ? " desc" : ""));
+                unique.put(name, !rs.getBoolean("NON_UNIQUE"));
+            }
+        } finally {
+            rs.close();
+        }
+        //indexes by columns, e.g. a unique and a non unique index on the same columns
+        Map<String, List<String>> byColumns = new TreeMap<String, List<String>>();
+        for (Map.Entry<String, SortedMap<Integer, String>> index : indexes.entrySet()) {
+            String key = "index " + table + index.getValue().values();
+            List<String> descriptions = byColumns.get(key);
+            if (descriptions == null) byColumns.put(key, descriptions = new ArrayList<String>());
+            descriptions.add(unique.get(index.getKey()) ? "unique" : "non unique");
+        }
+        for (Map.Entry<String, List<String>> index : byColumns.entrySet()) {
+            Collections.sort(index.getValue());
+            objects.put(index.getKey(), String.join(", ", index.getValue()));
+        }
+    }
+
+    private static void readForeignKeys(DatabaseMetaData metaData, String schema, String table, Map<String, String> objects) throws SQLException {
+        //foreign key name -> columns, referenced table and columns, rules
+        Map<String, String[]> keys = new TreeMap<String, String[]>();
+        ResultSet rs = metaData.getImportedKeys(null, schema, table);
+        try {
+            while (rs.next()) {
+                if (!table.equals(rs.getString("FKTABLE_NAME"))) continue;
+                String name = rs.getString("FK_NAME") + "/" + rs.getString("PKTABLE_NAME");
+                String[] key = keys.get(name);
+                if (key == null) {
+                    key = new String[]{"", rs.getString("PKTABLE_NAME"), "", "on update " + rs.getShort("UPDATE_RULE") + ", on delete " + rs.getShort("DELETE_RULE")};
+                    keys.put(name, key);
+                }
+                key[0] += (key[0].isEmpty() ? "" : ", ") + rs.getString("FKCOLUMN_NAME");
+                key[2] += (key[2].isEmpty() ? "" : ", ") + rs.getString("PKCOLUMN_NAME");
+            }
+        } finally {
+            rs.close();
+        }
+        for (String[] key : keys.values())
+            objects.put("foreign key " + table + "[" + key[0] + "]", "references " + key[1] + "[" + key[2] + "] " + key[3]);
+    }
+
+    /**
+     * @return the differences with the other schema, one line per object missing in either or described differently
+     */
+    List<String> compare(SchemaSnapshot other, String name, String otherName) {
+        List<String> differences = new ArrayList<String>();
+        for (Map.Entry<String, String> object : objects.entrySet()) {
+            String otherDescription = other.objects.get(object.getKey());
+            if (otherDescription == null)
+                differences.add(object.getKey() + " missing in " + otherName);
+            else if (!otherDescription.equals(object.getValue()))
+                differences.add(object.getKey() + ": " + object.getValue() + " in " + name + ", " + otherDescription + " in " + otherName);
+        }
+        for (String key : other.objects.keySet())
+            if (!objects.containsKey(key)) differences.add(key + " missing in " + name);
+        Collections.sort(differences);
+        return differences;
+    }
+
+    int size() {
+        return objects.size();
+    }
+}
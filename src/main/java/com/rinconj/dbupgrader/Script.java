@@ -0,0 +1,98 @@
+package com.rinconj.dbupgrader;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A parsed SQL script: the immutable list of its statements, as split by {@link StatementIterator}, and the hash of
+ * its content. Scripts can be safely shared by several upgraders and threads.
+ */
+final class Script implements Iterable<String> {
+    /**
+     * Marker for a script resource that doesn't exist
+     */
+    static final Script MISSING = new Script(null, Collections.<String>emptyList(), "");
+
+    private final String resource;
+    private final List<String> statements;
+    private final String hash;
+    private final long length;
+
+    Script(String resource, List<String> statements, String hash) {
+        this.resource = resource;
+        this.statements = Collections.unmodifiableList(statements);
+        this.hash = hash;
+        long length = 0;
+        for (String statement : statements) length += statement.length();
+        this.length = length;
+    }
+
+    /**
+     * Parses the given script content.
+     */
+    static Script parse(String resource, byte[] content, char separator, SqlDialect dialect, Charset charset) throws IOException {
+        List<String> statements = new ArrayList<String>();
+        StatementIterator iterator = new StatementIterator(new InputStreamReader(new ByteArrayInputStream(content), charset), separator, dialect);
+        while (iterator.hasNext()) statements.add(iterator.next());
+        return new Script(resource, statements, hash(content));
+    }
+
+    /**
+     * @return the hex encoded SHA-256 hash of the given content
+     */
+    static String hash(byte[] content) {
+        return toHex(newDigest().digest(content));
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return sb.toString();
+    }
+
+    String getResource() {
+        return resource;
+    }
+
+    List<String> getStatements() {
+        return statements;
+    }
+
+    /**
+     * @return the SHA-256 hash of the script content
+     */
+    String getHash() {
+        return hash;
+    }
+
+    int size() {
+        return statements.size();
+    }
+
+    /**
+     * @return the total number of characters of the statements
+     */
+    long getLength() {
+        return length;
+    }
+
+    public Iterator<String> iterator() {
+        return statements.iterator();
+    }
+}
@@ -0,0 +1,195 @@
+package com.rinconj.dbupgrader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * All the scripts of a scripts directory, split in statements at build time. When a bundle named
+ * <b>scripts.bundle</b> is found in the scripts base path of the classpath, the upgrader takes the scripts from it
+ * instead of looking up and parsing every script, so its startup cost doesn't depend on the number of versions.
+ * <p>
+ * The bundle is compiled by running this class in the build, e.g. with the exec-maven-plugin in the
+ * <i>process-resources</i> phase:
+ * <pre>
+ *     java com.rinconj.dbupgrader.ScriptBundle src/main/resources/db target/classes/db/scripts.bundle [separator] [dialect] [charset]
+ * </pre>
+ * The separator defaults to ; the dialect to GENERIC and the charset to UTF-8. The bundle is only used by upgraders
+ * with the same separator and dialect.
+ */
+public final class ScriptBundle {
+    public static final String BUNDLE_NAME = "scripts.bundle";
+    private static final int MAGIC = 0x44425542;
+    private static final int FORMAT_VERSION = 1;
+
+    private final char separator;
+    private final SqlDialect dialect;
+    private final Map<String, Script> scripts;
+
+    ScriptBundle(char separator, SqlDialect dialect, Map<String, Script> scripts) {
+        this.separator = separator;
+        this.dialect = dialect;
+        this.scripts = scripts;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: ScriptBundle <scripts dir> <bundle file> [separator] [dialect] [charset]");
+            System.exit(1);
+        }
+        char separator = args.length > 2 ? args[2].charAt(0) : ';';
+        SqlDialect dialect = args.length > 3 ? SqlDialect.valueOf(args[3].toUpperCase(Locale.ROOT)) : SqlDialect.GENERIC;
+        Charset charset = args.length > 4 ? Charset.forName(args[4]) : StandardCharsets.UTF_8;
+        ScriptBundle bundle = compile(new File(args[0]), separator, dialect, charset);
+        File file = new File(args[1]);
+        if (file.getParentFile() != null) file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            bundle.write(out);
+        } finally {
+            out.close();
+        }
+        System.out.println("Bundled " + bundle.size() + " script(s) into " + file);
+    }
+
+    /**
+     * Parses all the .sql files of the given directory and its subdirectories.
+     */
+    public static ScriptBundle compile(File dir, char separator, SqlDialect dialect, Charset charset) throws IOException {
+        if (!dir.isDirectory()) throw new IOException("Scripts directory " + dir + " not found!");
+        Map<String, Script> scripts = new HashMap<String, Script>();
+        addScripts(dir, "", separator, dialect, charset, scripts);
+        return new ScriptBundle(separator, dialect, scripts);
+    }
+
+    private static void addScripts(File dir, String prefix, char separator, SqlDialect dialect, Charset charset,
+                                   Map<String, Script> scripts) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        //sorted, so the bundle content doesn't depend on the file system
+        Arrays.sort(files);
+        for (File file : files) {
+            String resource = prefix + file.getName();
+            if (file.isDirectory()) {
+                addScripts(file, resource + "/", separator, dialect, charset, scripts);
+            } else if (file.getName().endsWith(".sql")) {
+                scripts.put(resource, Script.parse(resource, readFile(file), separator, dialect, charset));
+            }
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream is = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[8192];
+            for (int n = is.read(buffer); n != -1; n = is.read(buffer)) out.write(buffer, 0, n);
+            return out.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Writes the bundle: a header with the separator and dialect, then every script with its resource path, hash
+     * and statements, in UTF-8.
+     */
+    public void write(OutputStream os) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeChar(separator);
+        out.writeUTF(dialect.name());
+        List<String> resources = new ArrayList<String>(scripts.keySet());
+        Collections.sort(resources);
+        out.writeInt(resources.size());
+        for (String resource : resources) {
+            Script script = scripts.get(resource);
+            out.writeUTF(resource);
+            out.writeUTF(script.getHash());
+            out.writeInt(script.size());
+            for (String statement : script) writeString(out, statement);
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads a bundle written by {@link #write(OutputStream)}, in a single pass.
+     */
+    static ScriptBundle read(InputStream is) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(is, 64 * 1024));
+        if (in.readInt() != MAGIC) throw new IOException("Not a script bundle");
+        int version = in.readInt();
+        if (version != FORMAT_VERSION) throw new IOException("Unsupported script bundle format " + version);
+        char separator = in.readChar();
+        SqlDialect dialect = SqlDialect.valueOf(in.readUTF());
+        int count = in.readInt();
+        Map<String, Script> scripts = new HashMap<String, Script>(count * 2);
+        byte[] buffer = new byte[1024];
+        for (int i = 0; i < count; i++) {
+            String resource = in.readUTF();
+            String hash = in.readUTF();
+            int size = in.readInt();
+            List<String> statements = new ArrayList<String>(size);
+            for (int j = 0; j < size; j++) {
+                int length = in.readInt();
+                if (length > buffer.length) buffer = new byte[Math.max(length, buffer.length * 2)];
+                in.readFully(buffer, 0, length);
+                statements.add(new String(buffer, 0, length, StandardCharsets.UTF_8));
+            }
+            scripts.put(resource, new Script(resource, statements, hash));
+        }
+        return new ScriptBundle(separator, dialect, scripts);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * @param resource path relative to the scripts directory e.g. v1/upgrade.sql
+     * @return the script, {@link Script#MISSING} if not in the bundle
+     */
+    Script get(String resource) {
+        Script script = scripts.get(resource);
+        return script != null ? script : Script.MISSING;
+    }
+
+    /**
+     * @return true if the scripts were split as the given upgrader settings would
+     */
+    boolean matches(char separator, SqlDialect dialect) {
+        return this.separator == separator && this.dialect == dialect;
+    }
+
+    public int size() {
+        return scripts.size();
+    }
+
+    public char getSeparator() {
+        return separator;
+    }
+
+    public SqlDialect getDialect() {
+        return dialect;
+    }
+}
@@ -0,0 +1,287 @@
+package com.rinconj.dbupgrader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executes the statements of a script on a connection, in order, applying the upgrader settings (batching,
+ * directives) and reporting every statement to the listener.
+ */
+class ScriptExecutor {
+    private final static Logger LOGGER = Logger.getLogger(ScriptExecutor.class.getName());
+
+    private final DbUpgrader upgrader;
+    private final Connection conn;
+    private final String resource;
+    private final UpgradeListener listener;
+    private final ProgressTracker progress;
+    private final StatementWatchdog watchdog;
+    private final int skip;
+    private int ordinal;
+    private long rows;
+    private long hash;
+    private long previousHash;
+    //last statement added to the batch
+    private int batchOrdinal;
+    private long batchHash;
+
+    ScriptExecutor(DbUpgrader upgrader, Connection conn, String resource, UpgradeListener listener) {
+        this(upgrader, conn, resource, listener, null, StatementWatchdog.DISABLED, 0);
+    }
+
+    /**
+     * @param progress tracker to record the completed statements, or null
+     * @param watchdog bounds the execution time of the statements
+     * @param skip     number of statements to skip, as they completed in a previous run
+     */
+    ScriptExecutor(DbUpgrader upgrader, Connection conn, String resource, UpgradeListener listener, ProgressTracker progress,
+                   StatementWatchdog watchdog, int skip) {
+        this.upgrader = upgrader;
+        this.conn = conn;
+        this.resource = resource;
+        this.listener = listener;
+        this.progress = progress;
+        this.watchdog = watchdog;
+        this.skip = skip;
+    }
+
+    /**
+     * Executes all the statements.
+     *
+     * @return the number of statements executed
+     */
+    int execute(Iterator<String> iterator) throws IOException, SQLException {
+        int batchSize = upgrader.getBatchSize();
+        StatementBatch batch = batchSize > 1 && conn.getMetaData().supportsBatchUpdates() ? new StatementBatch(conn, batchSize, resource, listener, watchdog) : null;
+        try {
+            while (iterator.hasNext()) {
+                String stmt = nextStatement(iterator);
+                if (ordinal <= skip) continue;
+                Directive directive = Directive.parse(stmt);
+                if (directive != null && directive.getName().equals(ParallelRegion.DIRECTIVE)) {
+                    flush(batch);
+                    Directive end = execParallel(directive, iterator);
+                    //the statement following the region, if any
+                    if (end == null || end.getSql().isEmpty()) continue;
+                    stmt = end.getSql();
+                    directive = null;
+                }
+                if (directive != null && directive.getName().equals(BatchLoader.DIRECTIVE)) {
+                    flush(batch);
+                    execBatchLoad(directive);
+                    checkpoint(ordinal, hash);
+                    continue;
+                }
+                if (directive != null && directive.getName().equals(ChunkedUpdate.DIRECTIVE)) {
+                    flush(batch);
+                    execChunked(directive);
+                    checkpoint(ordinal, hash);
+                    continue;
+                }
+                if (directive != null) {
+                    LOGGER.warning("Ignoring unknown directive " + directive + " in " + resource);
+                    if (directive.getSql().isEmpty()) continue;
+                }
+                if (batch != null) {
+                    if (StatementType.of(stmt) == StatementType.DML) {
+                        LOGGER.fine("batching: " + stmt);
+                        batch.add(stmt, ordinal);
+                        batchOrdinal = ordinal;
+                        batchHash = hash;
+                        if (batch.isFull()) flush(batch);
+                        continue;
+                    }
+                    //keep the script order: pending DML runs before anything else
+                    flush(batch);
+                }
+                execStatement(stmt);
+                checkpoint(ordinal, hash);
+            }
+            flush(batch);
+        } finally {
+            if (batch != null) batch.close();
+        }
+        return ordinal;
+    }
+
+    /**
+     * @return the number of rows affected by the executed statements
+     */
+    long getRows() {
+        return rows;
+    }
+
+    /**
+     * Loads the CSV file of a <b>@batch</b> directive, the file is relative to the directory of the script.
+     */
+    private void execBatchLoad(Directive directive) throws IOException, SQLException {
+        Object file = directive.getArg(0);
+        if (!(file instanceof String)) throw new IOException("Missing data file in " + directive + " of " + resource);
+        BatchLoader loader;
+        Charset charset;
+        try {
+            int batchSize = upgrader.getBatchSize();
+            loader = new BatchLoader(conn, directive, batchSize > 1 ? batchSize : BatchLoader.DEFAULT_BATCH_SIZE);
+            String encoding = Directive.stringOption(directive.getOptions(), "encoding", null);
+            charset = encoding == null ? upgrader.getCharset() : Charset.forName(encoding);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid directive " + directive + " in " + resource, e);
+        }
+        String dataResource = resource.substring(0, resource.lastIndexOf('/') + 1) + file;
+        InputStream is = upgrader.openResource(dataResource);
+        if (is == null) throw new IOException("Data file " + dataResource + " not found!");
+        Reader reader = new InputStreamReader(is, charset);
+        LOGGER.info("Loading " + dataResource);
+        listener.statementStarted(resource, ordinal, directive.getSql());
+        long start = System.nanoTime();
+        try {
+            long loaded = loader.load(reader, dataResource);
+            rows += loaded;
+            listener.statementFinished(resource, ordinal, directive.getSql(), loaded, System.nanoTime() - start);
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Failed executing statement #" + ordinal + " of " + resource + ":" + directive.getSql(), e);
+            listener.statementFailed(resource, ordinal, directive.getSql(), e, System.nanoTime() - start);
+            throw e;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Executes the statement of a <b>@chunked</b> directive, resuming after its last completed chunk if it was
+     * interrupted right after the statements skipped and didn't change since.
+     */
+    private void execChunked(Directive directive) throws IOException, SQLException {
+        ChunkedUpdate update;
+        try {
+            update = new ChunkedUpdate(conn, directive, resource, ordinal, watchdog);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid directive " + directive + " in " + resource, e);
+        }
+        Long lastKey = progress != null && ordinal == skip + 1 ? progress.getResumeChunkKey(resource, ordinal, hash) : null;
+        ChunkedUpdate.Checkpoint checkpoint = null;
+        if (progress != null) {
+            final int completed = ordinal - 1;
+            final long completedHash = previousHash;
+            final long chunkHash = hash;
+            checkpoint = new ChunkedUpdate.Checkpoint() {
+                public void chunkCompleted(long key) {
+                    progress.checkpointChunk(resource, completed, completedHash, key, chunkHash);
+                }
+            };
+        }
+        commitStep("chunked update");
+        listener.statementStarted(resource, ordinal, directive.getSql());
+        long start = System.nanoTime();
+        try {
+            long updated = update.execute(lastKey, checkpoint);
+            rows += updated;
+            listener.statementFinished(resource, ordinal, directive.getSql(), updated, System.nanoTime() - start);
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Failed executing statement #" + ordinal + " of " + resource + ":" + directive.getSql(), e);
+            listener.statementFailed(resource, ordinal, directive.getSql(), e, System.nanoTime() - start);
+            throw e;
+        }
+    }
+
+    /**
+     * Executes the statements of a <b>@parallel</b> region, up to the <b>@end</b> directive or the end of the script.
+     * The current transaction, if any, is committed first so the other connections see its changes.
+     *
+     * @return the end directive, or null if the region ended with the script
+     */
+    private Directive execParallel(Directive directive, Iterator<String> iterator) throws IOException, SQLException {
+        ParallelRegion region;
+        try {
+            region = new ParallelRegion(upgrader.getDataSource(), resource, listener, watchdog,
+                    Directive.intOption(directive.getOptions(), "threads", ParallelRegion.DEFAULT_THREADS));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid directive " + directive + " in " + resource, e);
+        }
+        if (!directive.getSql().isEmpty()) region.add(directive.getSql(), ordinal);
+        Directive end = null;
+        int endOrdinal = ordinal;
+        long endHash = hash;
+        while (end == null && iterator.hasNext()) {
+            endOrdinal = ordinal;
+            endHash = hash;
+            String stmt = nextStatement(iterator);
+            Directive nested = Directive.parse(stmt);
+            if (nested != null && nested.getName().equals(ParallelRegion.END_DIRECTIVE)) end = nested;
+            else if (nested != null) throw new IOException("Directive " + nested + " not allowed in the parallel region of " + resource);
+            else region.add(stmt, ordinal);
+        }
+        commitStep("parallel region");
+        rows += region.execute();
+        if (end == null) checkpoint(ordinal, hash);
+        else checkpoint(endOrdinal, endHash);
+        return end;
+    }
+
+    /**
+     * Commits the transaction of the version step, if any, before statements that run in their own transactions.
+     */
+    private void commitStep(String what) throws SQLException {
+        if (conn.getAutoCommit()) return;
+        LOGGER.warning("The " + what + " at statement #" + ordinal + " of " + resource + " commits the version transaction, "
+                + "the version can be partially applied on failure" + (progress == null ? " and its committed statements executed again on retry" : ""));
+        conn.commit();
+    }
+
+    private String nextStatement(Iterator<String> iterator) {
+        String stmt = iterator.next();
+        ordinal++;
+        previousHash = hash;
+        if (progress != null) hash = ProgressTracker.hash(hash, stmt);
+        return stmt;
+    }
+
+    private void flush(StatementBatch batch) throws SQLException {
+        if (batch == null || batch.isEmpty()) return;
+        rows += batch.flush();
+        checkpoint(batchOrdinal, batchHash);
+    }
+
+    private void checkpoint(int ordinal, long hash) {
+        if (progress != null) progress.checkpoint(resource, ordinal, hash);
+    }
+
+    private void execStatement(String stmt) throws SQLException {
+        listener.statementStarted(resource, ordinal, stmt);
+        long start = System.nanoTime();
+        Statement statement = null;
+        try {
+            LOGGER.fine("executing: " + stmt);
+            statement = conn.createStatement();
+            StatementWatchdog.Execution execution = watchdog.start(statement, resource, ordinal, stmt);
+            boolean hasResult;
+            try {
+                hasResult = statement.execute(stmt);
+            } catch (SQLException e) {
+                throw watchdog.failed(execution, e);
+            }
+            watchdog.finish(execution);
+            long updateCount = hasResult ? -1 : statement.getUpdateCount();
+            if(!hasResult){
+                LOGGER.fine(updateCount + " row(s) affected");
+                if (updateCount > 0) rows += updateCount;
+            }
+            listener.statementFinished(resource, ordinal, stmt, updateCount, System.nanoTime() - start);
+        } catch (SQLException e) {
+            LOGGER.log(Level.SEVERE, "Failed executing statement #" + ordinal + " of " + resource + ":" + stmt, e);
+            listener.statementFailed(resource, ordinal, stmt, e, System.nanoTime() - start);
+            throw e;
+        } finally {
+            if(statement!=null) statement.close();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.rinconj.dbupgrader;
+
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.rinconj.dbupgrader.JdbcUtils.executeSql;
+import static java.lang.String.format;
+
+/**
+ * History table of the scripts applied to a schema: one row per executed script, with its content hash, statement
+ * and row counts and duration. The size and modification time of the script are recorded as its stamp, so unchanged
+ * scripts don't need to be read again to verify their hash.
+ */
+class ScriptHistory {
+    private static final String CREATE_HISTORY_TABLE_SQL = "CREATE TABLE %s(id varchar(100) NOT NULL, from_version INTEGER NOT NULL, " +
+            "to_version INTEGER NOT NULL, script varchar(255) NOT NULL, hash varchar(64) NOT NULL, statements INTEGER NOT NULL, " +
+            "row_count BIGINT NOT NULL, duration_ms BIGINT NOT NULL, applied TIMESTAMP NOT NULL, stamp varchar(64))";
+    private static final String INSERT_HISTORY_SQL = "INSERT INTO %s(id, from_version, to_version, script, hash, statements, row_count, " +
+            "duration_ms, applied, stamp) values(?,?,?,?,?,?,?,?,?,?)";
+    private static final String SELECT_HISTORY_SQL = "SELECT from_version, to_version, script, hash, statements, row_count, duration_ms, " +
+            "applied, stamp FROM %s WHERE id=? ORDER BY applied";
+    private static final String UPDATE_STAMP_SQL = "UPDATE %s SET stamp=? WHERE id=? AND script=? AND hash=?";
+
+    private final StatementCache cache;
+    private final String table;
+    private final String schemaId;
+
+    ScriptHistory(StatementCache cache, String table, String schemaId) {
+        this.cache = cache;
+        this.table = table;
+        this.schemaId = schemaId;
+    }
+
+    boolean tableExists(DatabaseMetaData metaData) throws SQLException {
+        ResultSet rs = metaData.getTables(null, null, table, null);
+        try {
+            return rs.next();
+        } finally {
+            rs.close();
+        }
+    }
+
+    void createTableIfMissing(DatabaseMetaData metaData) throws SQLException {
+        if (!tableExists(metaData)) executeSql(cache.getConnection(), format(CREATE_HISTORY_TABLE_SQL, table));
+    }
+
+    /**
+     * @param stamp the size and modification time of the script, or null if unknown
+     */
+    void record(int fromVersion, int toVersion, ScriptResult result, String stamp) {
+        executeSql(cache, format(INSERT_HISTORY_SQL, table), schemaId, fromVersion, toVersion, result.resource, result.hash,
+                result.statements, result.rows, result.nanos / 1000000, new Timestamp(System.currentTimeMillis()), stamp);
+    }
+
+    /**
+     * Records the current stamp of a script whose content was verified to be unchanged.
+     */
+    void updateStamp(HistoryEntry entry, String stamp) {
+        executeSql(cache, format(UPDATE_STAMP_SQL, table), stamp, schemaId, entry.getScript(), entry.getHash());
+    }
+
+    /**
+     * @return the applied scripts, oldest first
+     */
+    List<HistoryEntry> load() throws SQLException {
+        List<HistoryEntry> entries = new ArrayList<HistoryEntry>();
+        PreparedStatement ps = cache.prepare(format(SELECT_HISTORY_SQL, table));
+        ps.setString(1, schemaId);
+        ResultSet rs = ps.executeQuery();
+        try {
+            while (rs.next())
+                entries.add(new HistoryEntry(rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getString(4), rs.getInt(5),
+                        rs.getLong(6), rs.getLong(7), rs.getTimestamp(8), rs.getString(9)));
+        } finally {
+            rs.close();
+        }
+        return entries;
+    }
+
+    /**
+     * Outcome of a script execution
+     */
+    static class ScriptResult {
+        final String resource;
+        final String hash;
+        final int statements;
+        final long rows;
+        final long nanos;
+
+        ScriptResult(String resource, String hash, int statements, long rows, long nanos) {
+            this.resource = resource;
+            this.hash = hash;
+            this.statements = statements;
+            this.rows = rows;
+            this.nanos = nanos;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.rinconj.dbupgrader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of parsed scripts, shared by all the upgraders of the JVM through {@link #SHARED}. Each script is read and
+ * parsed once, and kept until the total size of the cached statements exceeds the cache size, evicting the least
+ * recently used scripts first.
+ * <ul>
+ * <li>Classpath resources don't change, they are cached by path, including the missing ones.</li>
+ * <li>Files are read and hashed on every lookup, the cached script is reused only if its content hash matches.</li>
+ * <li>Scripts larger than the maximum script size, in bytes before decoding, aren't cached, the lookup returns null
+ * and the caller is expected to stream them. Resources of unknown length are read up to the maximum script size to
+ * find out.</li>
+ * </ul>
+ * The cache size, in characters, can be set with the <b>dbupgrader.script.cache.size</b> system property. The
+ * maximum script size is a quarter of it, in bytes: a script decodes to at most as many characters as it has bytes
+ * with the usual charsets, so a cached script never takes more than a quarter of the cache.
+ */
+class ScriptRepository {
+    static final String CACHE_SIZE_SYS_PROPERTY = "dbupgrader.script.cache.size";
+    static final long DEFAULT_CACHE_SIZE = 16 * 1024 * 1024;
+    private static final int ENTRY_OVERHEAD = 64;
+
+    static final ScriptRepository SHARED = new ScriptRepository(Long.getLong(CACHE_SIZE_SYS_PROPERTY, DEFAULT_CACHE_SIZE));
+
+    private final long maxSize;
+    //in bytes, compared with the content length of the scripts
+    private final long maxScriptSize;
+    private final LinkedHashMap<String, Script> scripts = new LinkedHashMap<String, Script>(64, 0.75f, true);
+    private long size;
+
+    /**
+     * @param maxSize the maximum number of characters of all the cached statements, a single script is cached only
+     *                if its content is smaller than a quarter of it in bytes.
+     */
+    ScriptRepository(long maxSize) {
+        this.maxSize = maxSize;
+        this.maxScriptSize = maxSize / 4;
+    }
+
+    /**
+     * Returns the script of the given classpath resource.
+     *
+     * @param path absolute resource path
+     * @return the parsed script, {@link Script#MISSING} if not found, or null if too large to be cached
+     */
+    Script getResource(String path, char separator, SqlDialect dialect, Charset charset) throws IOException {
+        String key = "classpath:" + path + "|" + separator + "|" + dialect + "|" + charset.name();
+        Script script = lookup(key);
+        if (script != null) return script;
+        URL url = ScriptRepository.class.getResource(path);
+        if (url == null) return store(key, Script.MISSING);
+        URLConnection connection = url.openConnection();
+        InputStream is = connection.getInputStream();
+        if (connection.getContentLengthLong() > maxScriptSize) {
+            is.close();
+            return null;
+        }
+        //the length may be unknown (-1), only the limit is read
+        byte[] content = read(is, maxScriptSize + 1);
+        if (content.length > maxScriptSize) return null;
+        return store(key, Script.parse(path, content, separator, dialect, charset));
+    }
+
+    /**
+     * Returns the script of the given file, parsing it again if its content changed since it was cached.
+     *
+     * @return the parsed script, {@link Script#MISSING} if not found, or null if too large to be cached
+     */
+    Script getFile(File file, char separator, SqlDialect dialect, Charset charset) throws IOException {
+        String key = "file:" + file.getAbsolutePath() + "|" + separator + "|" + dialect + "|" + charset.name();
+        if (!file.isFile()) return Script.MISSING;
+        if (file.length() > maxScriptSize) return null;
+        byte[] content = read(new FileInputStream(file), Long.MAX_VALUE);
+        String hash = Script.hash(content);
+        Script script = lookup(key);
+        if (script != null && script.getHash().equals(hash)) return script;
+        return store(key, Script.parse(file.getPath(), content, separator, dialect, charset));
+    }
+
+    synchronized int size() {
+        return scripts.size();
+    }
+
+    synchronized void clear() {
+        scripts.clear();
+        size = 0;
+    }
+
+    private synchronized Script lookup(String key) {
+        return scripts.get(key);
+    }
+
+    private synchronized Script store(String key, Script script) {
+        Script previous = scripts.put(key, script);
+        if (previous != null) size -= weight(previous);
+        size += weight(script);
+        for (Iterator<Map.Entry<String, Script>> it = scripts.entrySet().iterator(); size > maxSize && it.hasNext(); ) {
+            Script eldest = it.next().getValue();
+            it.remove();
+            size -= weight(eldest);
+        }
+        return script;
+    }
+
+    private static long weight(Script script) {
+        return ENTRY_OVERHEAD + script.getLength();
+    }
+
+    /**
+     * Reads the stream up to the given number of bytes, and closes it.
+     */
+    private static byte[] read(InputStream is, long limit) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while (out.size() < limit && (n = is.read(buffer, 0, (int) Math.min(buffer.length, limit - out.size()))) != -1)
+                out.write(buffer, 0, n);
+            return out.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+}
@@ -0,0 +1,311 @@
+package com.rinconj.dbupgrader;
+
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The lexical rules of a database, used by {@link StatementIterator} to split scripts in statements. Every dialect
+ * understands single quoted strings, double quoted identifiers, line and block comments, plus:
+ * <ul>
+ * <li>{@link #POSTGRESQL}: dollar quoted strings e.g. function bodies between <code>$$</code> or <code>$body$</code></li>
+ * <li>{@link #ORACLE}: PL/SQL blocks (anonymous blocks, procedures, functions, packages, triggers and type bodies),
+ * which end with their last END, and lines with a single <code>/</code></li>
+ * <li>{@link #MYSQL}: back quoted identifiers, backslash escapes, # comments and the <code>DELIMITER</code>
+ * command</li>
+ * <li>{@link #SQLSERVER}: bracket quoted identifiers, BEGIN...END blocks and lines with a single <code>GO</code>.
+ * Procedures, functions and triggers only end with a GO line, as they must be alone in their batch.</li>
+ * </ul>
+ */
+public enum SqlDialect {
+    GENERIC,
+    POSTGRESQL {
+        @Override
+        boolean hasDollarQuotes() {
+            return true;
+        }
+    },
+    ORACLE {
+        @Override
+        String getBatchSeparator() {
+            return "/";
+        }
+
+        @Override
+        Block newBlock() {
+            return new PlSqlBlock();
+        }
+    },
+    MYSQL {
+        @Override
+        boolean isQuote(char c) {
+            return c == '`' || super.isQuote(c);
+        }
+
+        @Override
+        boolean hasBackslashEscapes() {
+            return true;
+        }
+
+        @Override
+        boolean hasHashComments() {
+            return true;
+        }
+
+        @Override
+        boolean hasDelimiterCommand() {
+            return true;
+        }
+    },
+    SQLSERVER {
+        @Override
+        boolean isQuote(char c) {
+            return c == '[' || super.isQuote(c);
+        }
+
+        @Override
+        char closingQuote(char quote) {
+            return quote == '[' ? ']' : quote;
+        }
+
+        @Override
+        String getBatchSeparator() {
+            return "GO";
+        }
+
+        @Override
+        Block newBlock() {
+            return new TSqlBlock();
+        }
+    };
+
+    /**
+     * @return the dialect of the database, {@link #GENERIC} if unknown
+     */
+    public static SqlDialect of(DatabaseMetaData metaData) throws SQLException {
+        return of(metaData.getDatabaseProductName());
+    }
+
+    /**
+     * @param productName the database product name, as reported by the JDBC driver
+     */
+    public static SqlDialect of(String productName) {
+        String name = productName == null ? "" : productName.toLowerCase(Locale.ROOT);
+        if (name.contains("postgres")) return POSTGRESQL;
+        if (name.contains("oracle")) return ORACLE;
+        if (name.contains("mysql") || name.contains("mariadb")) return MYSQL;
+        if (name.contains("sql server")) return SQLSERVER;
+        return GENERIC;
+    }
+
+    boolean isQuote(char c) {
+        return c == '\'' || c == '"';
+    }
+
+    char closingQuote(char quote) {
+        return quote;
+    }
+
+    boolean hasBackslashEscapes() {
+        return false;
+    }
+
+    boolean hasDollarQuotes() {
+        return false;
+    }
+
+    boolean hasHashComments() {
+        return false;
+    }
+
+    boolean hasDelimiterCommand() {
+        return false;
+    }
+
+    /**
+     * @return the command that ends the statement when alone in a line, or null
+     */
+    String getBatchSeparator() {
+        return null;
+    }
+
+    /**
+     * @return a tracker of the procedural blocks of the statements, or null if the dialect has none
+     */
+    Block newBlock() {
+        return null;
+    }
+
+    /**
+     * Tracks the procedural block of the statement being scanned, if any, from its words. The separator doesn't end
+     * the statement while the block is open.
+     */
+    abstract static class Block {
+        static final int MAX_WORD_LENGTH = 14;
+
+        /**
+         * Called at the start of every statement.
+         */
+        abstract void reset();
+
+        /**
+         * Called with every upper case word of the statement, except the ones in strings and comments. Words longer
+         * than {@link #MAX_WORD_LENGTH} are passed as an empty string.
+         */
+        abstract void word(String word);
+
+        /**
+         * Called with every separator found in the statement.
+         */
+        abstract void separator();
+
+        abstract boolean isOpen();
+
+        /**
+         * @return true if the separator ending the statement is part of it
+         */
+        boolean keepsSeparator() {
+            return false;
+        }
+    }
+
+    /**
+     * PL/SQL blocks end with the END of their outermost unit. Units start with DECLARE, BEGIN, or the IS/AS of a
+     * procedure, function, package or type body, whose BEGIN doesn't open another unit. CASE...END and the END of IF
+     * and LOOP statements are balanced as well.
+     */
+    static class PlSqlBlock extends Block {
+        //undecided, not a block, or a block
+        private static final int UNKNOWN = 0, NONE = 1, PLSQL = 2;
+        private int state;
+        private final List<String> head = new ArrayList<String>();
+        //for every open unit, whether it still waits for its BEGIN
+        private final List<Boolean> units = new ArrayList<Boolean>();
+        private boolean opened;
+        private boolean subprogram;
+        private boolean pendingEnd;
+
+        void reset() {
+            state = UNKNOWN;
+            head.clear();
+            units.clear();
+            opened = subprogram = pendingEnd = false;
+        }
+
+        void word(String word) {
+            if (state == UNKNOWN) decide(word);
+            if (state != PLSQL) return;
+            if (pendingEnd) {
+                pendingEnd = false;
+                //END IF and END LOOP close statements that aren't tracked
+                if (word.equals("IF") || word.equals("LOOP")) return;
+                close();
+                if (word.equals("CASE")) return;
+            }
+            if (word.equals("END")) {
+                pendingEnd = true;
+            } else if (word.equals("DECLARE")) {
+                open(true);
+            } else if (word.equals("BEGIN")) {
+                int last = units.size() - 1;
+                if (last >= 0 && units.get(last)) units.set(last, false);
+                else open(false);
+            } else if (word.equals("CASE")) {
+                open(false);
+            } else if (word.equals("PROCEDURE") || word.equals("FUNCTION") || word.equals("PACKAGE") || word.equals("BODY")) {
+                subprogram = true;
+            } else if (subprogram && (word.equals("IS") || word.equals("AS"))) {
+                open(true);
+            }
+        }
+
+        private void decide(String word) {
+            head.add(word);
+            String first = head.get(0);
+            if (first.equals("DECLARE") || first.equals("BEGIN")) {
+                state = PLSQL;
+            } else if (!first.equals("CREATE")) {
+                state = NONE;
+            } else if (head.size() > 1) {
+                if (word.equals("OR") || word.equals("REPLACE") || word.equals("EDITIONABLE") || word.equals("NONEDITIONABLE"))
+                    return;
+                if (word.equals("PROCEDURE") || word.equals("FUNCTION") || word.equals("PACKAGE") || word.equals("TRIGGER")) {
+                    state = PLSQL;
+                } else if (word.equals("BODY") && head.get(head.size() - 2).equals("TYPE")) {
+                    state = PLSQL;
+                } else if (!word.equals("TYPE")) {
+                    state = NONE;
+                }
+            }
+        }
+
+        private void open(boolean awaitingBegin) {
+            units.add(awaitingBegin);
+            opened = true;
+            subprogram = false;
+        }
+
+        private void close() {
+            if (!units.isEmpty()) units.remove(units.size() - 1);
+        }
+
+        void separator() {
+            if (pendingEnd) close();
+            pendingEnd = false;
+            subprogram = false;
+        }
+
+        boolean isOpen() {
+            return state == PLSQL && !(opened && units.isEmpty());
+        }
+
+        @Override
+        boolean keepsSeparator() {
+            return state == PLSQL;
+        }
+    }
+
+    /**
+     * T-SQL statements end with the separator only outside BEGIN...END and CASE...END. Procedures, functions and
+     * triggers only end with the batch separator.
+     */
+    static class TSqlBlock extends Block {
+        private int words;
+        private boolean create;
+        private boolean routine;
+        private int depth;
+        private boolean pendingBegin;
+
+        void reset() {
+            words = depth = 0;
+            create = routine = pendingBegin = false;
+        }
+
+        void word(String word) {
+            words++;
+            if (words == 1) create = word.equals("CREATE") || word.equals("ALTER");
+            else if (create && (word.equals("OR") || word.equals("ALTER"))) return;
+            else if (create) {
+                routine = word.equals("PROCEDURE") || word.equals("PROC") || word.equals("FUNCTION") || word.equals("TRIGGER");
+                create = false;
+            }
+            if (pendingBegin) {
+                pendingBegin = false;
+                if (!word.equals("TRAN") && !word.equals("TRANSACTION") && !word.equals("DISTRIBUTED")) depth++;
+            }
+            if (word.equals("BEGIN")) pendingBegin = true;
+            else if (word.equals("CASE")) depth++;
+            else if (word.equals("END") && depth > 0) depth--;
+        }
+
+        void separator() {
+            pendingBegin = false;
+        }
+
+        boolean isOpen() {
+            return routine || depth > 0 || pendingBegin;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.rinconj.dbupgrader;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Groups consecutive statements into JDBC batches of up to <i>batchSize</i> statements. The pending statements are
+ * kept until the batch is executed so that failures can be reported against the exact statement.
+ */
+class StatementBatch {
+    private final static Logger LOGGER = Logger.getLogger(StatementBatch.class.getName());
+
+    private final Connection conn;
+    private final int batchSize;
+    private final String resource;
+    private final UpgradeListener listener;
+    private final StatementWatchdog watchdog;
+    private final List<String> pending;
+    private final int[] ordinals;
+    private Statement statement;
+
+    StatementBatch(Connection conn, int batchSize, String resource, UpgradeListener listener, StatementWatchdog watchdog) {
+        this.conn = conn;
+        this.batchSize = batchSize;
+        this.resource = resource;
+        this.listener = listener;
+        this.watchdog = watchdog;
+        this.pending = new ArrayList<String>(batchSize);
+        this.ordinals = new int[batchSize];
+    }
+
+    /**
+     * Adds the statement to the batch, which must be flushed once full.
+     *
+     * @param ordinal position of the statement in the script
+     */
+    void add(String sql, int ordinal) throws SQLException {
+        if (statement == null) statement = conn.createStatement();
+        listener.statementStarted(resource, ordinal, sql);
+        statement.addBatch(sql);
+        ordinals[pending.size()] = ordinal;
+        pending.add(sql);
+    }
+
+    boolean isFull() {
+        return pending.size() >= batchSize;
+    }
+
+    boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    /**
+     * Executes the pending statements, if any.
+     *
+     * @return the number of rows affected
+     */
+    long flush() throws SQLException {
+        if (pending.isEmpty()) return 0;
+        long start = System.nanoTime();
+        try {
+            int[] counts = executeBatch();
+            long nanos = (System.nanoTime() - start) / pending.size();
+            long rows = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) rows += counts[i];
+                if (i < pending.size())
+                    listener.statementFinished(resource, ordinals[i], pending.get(i), counts[i] < 0 ? -1 : counts[i], nanos);
+            }
+            LOGGER.fine("executed batch of " + pending.size() + " statement(s), " + rows + " row(s) affected");
+            return rows;
+        } catch (BatchUpdateException e) {
+            int index = failedIndex(e.getUpdateCounts());
+            if (index < 0)
+                throw batchFailed(new SQLException("Failed executing " + describeBatch(), e.getSQLState(), e.getErrorCode(), e), start);
+            String failed = pending.get(index);
+            LOGGER.log(Level.SEVERE, "Failed executing statement #" + ordinals[index] + " of " + resource + ":" + failed, e);
+            SQLException error = new SQLException("Failed executing statement:" + failed, e.getSQLState(), e.getErrorCode(), e);
+            listener.statementFailed(resource, ordinals[index], failed, error, System.nanoTime() - start);
+            throw error;
+        } catch (SQLException e) {
+            //not caused by a statement of the batch, e.g. timed out
+            throw batchFailed(e, start);
+        } finally {
+            pending.clear();
+            clearBatch();
+        }
+    }
+
+    /**
+     * Reports a failure that can't be pinned on a statement of the batch.
+     */
+    private SQLException batchFailed(SQLException e, long start) {
+        String batch = describeBatch();
+        LOGGER.log(Level.SEVERE, "Failed executing " + batch + " of " + resource, e);
+        listener.statementFailed(resource, ordinals[0], batch, e, System.nanoTime() - start);
+        return e;
+    }
+
+    private String describeBatch() {
+        int last = pending.size() - 1;
+        return "batch of " + pending.size() + " statement(s) #" + ordinals[0] + " to #" + ordinals[last] + ": " + pending.get(last);
+    }
+
+    //a failure here mustn't mask the one of the batch, nor leave its statements to run with the next one
+    private void clearBatch() {
+        try {
+            statement.clearBatch();
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Failed clearing the batch of " + resource + ", discarding its statement", e);
+            try {
+                statement.close();
+            } catch (SQLException ignored) {
+            }
+            statement = null;
+        }
+    }
+
+    private int[] executeBatch() throws SQLException {
+        StatementWatchdog.Execution execution = watchdog.start(statement, resource, ordinals[0], describeBatch());
+        try {
+            int[] counts = statement.executeBatch();
+            watchdog.finish(execution);
+            return counts;
+        } catch (SQLException e) {
+            throw watchdog.failed(execution, e);
+        }
+    }
+
+    void close() throws SQLException {
+        if (statement != null) statement.close();
+    }
+
+    /**
+     * @return the index of the failed statement, or -1 if unknown
+     */
+    private int failedIndex(int[] counts) {
+        //drivers either stop at the first failure or keep going, marking the failed ones
+        if (counts == null) return -1;
+        if (counts.length < pending.size()) return counts.length;
+        for (int i = 0; i < counts.length; i++)
+            if (counts[i] == Statement.EXECUTE_FAILED) return i;
+        return -1;
+    }
+}
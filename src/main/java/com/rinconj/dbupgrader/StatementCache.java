@@ -0,0 +1,74 @@
+package com.rinconj.dbupgrader;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Prepared statements of a connection, keyed by SQL. At most <i>maxSize</i> statements are kept open, the least
+ * recently used one is closed when the limit is exceeded, so the number of server cursors stays bounded no matter
+ * how many times the statements are executed. Must be closed before the connection.
+ */
+class StatementCache {
+    private final static Logger LOGGER = Logger.getLogger(StatementCache.class.getName());
+
+    private final Connection conn;
+    private final Map<String, PreparedStatement> statements;
+
+    StatementCache(Connection conn, final int maxSize) {
+        this.conn = conn;
+        this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= maxSize) return false;
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    Connection getConnection() {
+        return conn;
+    }
+
+    /**
+     * Returns the cached statement for the given sql, preparing it if needed.
+     */
+    PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement ps = statements.get(sql);
+        if (ps == null) {
+            ps = conn.prepareStatement(sql);
+            statements.put(sql, ps);
+        } else {
+            ps.clearParameters();
+        }
+        return ps;
+    }
+
+    int size() {
+        return statements.size();
+    }
+
+    /**
+     * Closes all the cached statements.
+     */
+    void close() {
+        for (Iterator<PreparedStatement> it = statements.values().iterator(); it.hasNext(); ) {
+            closeQuietly(it.next());
+            it.remove();
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement ps) {
+        try {
+            ps.close();
+        } catch (SQLException e) {
+            LOGGER.log(Level.FINE, "failed closing statement", e);
+        }
+    }
+}
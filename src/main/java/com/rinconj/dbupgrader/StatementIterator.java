@@ -1,145 +1,353 @@
 package com.rinconj.dbupgrader;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.Iterator;
+import java.util.Locale;
 import java.util.NoSuchElementException;
 
-import static java.lang.Character.toChars;
-
 /**
- * Created by julio on 3/05/15.
+ * Splits a SQL script into statements. The script is read in chunks into a reusable buffer and scanned once,
+ * recognising:
+ * <ul>
+ * <li>single quoted strings and double quoted identifiers, which may span lines</li>
+ * <li>line comments (--), which are replaced by a line break</li>
+ * <li>block comments, which are dropped at the beginning of a statement and kept anywhere else. Block comments
+ * holding a {@link Directive} (a line starting with @) are always kept</li>
+ * <li>the statement separator, only when it is the last non blank character of a line</li>
+ * <li>the quotes, comments, blocks and separators of the {@link SqlDialect}, see there</li>
+ * </ul>
  */
 public class StatementIterator implements Iterator<String> {
-    interface Parser{
-        boolean parse(Reader reader, StringBuilder sb) throws IOException;
-    }
+    private static final int BUFFER_SIZE = 8192;
+    private static final int EOF = -1;
+    private static final int INITIAL_STATEMENT_CAPACITY = 256;
+    //larger statement buffers are released once the statement is consumed
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    private static final String DELIMITER_COMMAND = "DELIMITER";
 
+    private final Reader reader;
     private final char stmtSeparator;
+    private final SqlDialect dialect;
+    //characters starting a token other than plain text
+    private final boolean[] special = new boolean[128];
+    private final boolean lineChecks;
+    private final String batchSeparator;
+    private final SqlDialect.Block block;
+    //custom separator set by a DELIMITER command, checked at the end of every line
+    private String delimiter;
+    //statement positions of the current line start, and of the first character not yet split in words
+    private int lineStart;
+    private int wordsFrom;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int pos;
+    private int limit;
+    private StringBuilder stmt = new StringBuilder(INITIAL_STATEMENT_CAPACITY);
+    private final StatementView view = new StatementView();
+    private String nextStatement;
 
-    private final Parser STRING_PARSER = new Parser(){
-        public boolean parse(Reader reader, StringBuilder sb) throws IOException {
-            int curChar = reader.read();
-            if(curChar!='\'') return false;
-            int nextChar;
-            int initial = sb.length();
-            sb.append(toChars(curChar));
-            while ((nextChar=reader.read())!=-1){
-                sb.append(toChars(nextChar));
-                if(nextChar=='\''){
-                    return true;
-                }
-            }
-            throw new RuntimeException("Unterminated string " + sb.substring(initial));
+    StatementIterator(Reader reader) {
+        this(reader, ';');
+    }
+
+    StatementIterator(Reader reader, char stmtSeparator) {
+        this(reader, stmtSeparator, SqlDialect.GENERIC);
+    }
+
+    StatementIterator(Reader reader, char stmtSeparator, SqlDialect dialect) {
+        this.reader = reader;
+        this.stmtSeparator = stmtSeparator;
+        this.dialect = dialect;
+        this.batchSeparator = dialect.getBatchSeparator();
+        this.lineChecks = batchSeparator != null || dialect.hasDelimiterCommand();
+        this.block = dialect.newBlock();
+        for (char c = 0; c < special.length; c++) {
+            special[c] = c == '-' || c == '/' || c == stmtSeparator || dialect.isQuote(c)
+                    || (c == '$' && dialect.hasDollarQuotes()) || (c == '#' && dialect.hasHashComments()) || (c == '\n' && lineChecks);
         }
-    };
+    }
 
-    private final Parser COMMENT_PARSER = new Parser(){
-        public boolean parse(Reader reader, StringBuilder sb) throws IOException {
-            int curChar = reader.read();
-            if(curChar!='-') return false;
-            int nextChar = reader.read();
-            if(nextChar!='-'){
-                return false;
+    private String getNextStatement() throws IOException {
+        return scanNext() ? view.toString() : null;
+    }
+
+    /**
+     * Scans the next non empty statement, setting the view to its trimmed text.
+     *
+     * @return false if there are no more statements
+     */
+    private boolean scanNext() throws IOException {
+        if (stmt.capacity() > MAX_RETAINED_CAPACITY) stmt = new StringBuilder(INITIAL_STATEMENT_CAPACITY);
+        while (true) {
+            stmt.setLength(0);
+            lineStart = wordsFrom = 0;
+            if (block != null) block.reset();
+            boolean separated = scanStatement();
+            if (trim()) return true;
+            if (!separated) return false;
+        }
+    }
+
+    /**
+     * Scans the next statement into the statement buffer.
+     *
+     * @return true if the statement was ended by a separator, false if the end of the script was reached
+     */
+    private boolean scanStatement() throws IOException {
+        int c;
+        while ((c = read()) != EOF) {
+            if (c < special.length && !special[c]) {
+                //copy the run of plain characters in one go
+                stmt.append((char) c);
+                int start = pos;
+                while (pos < limit && !isSpecial(buffer[pos])) pos++;
+                stmt.append(buffer, start, pos - start);
+                if (block != null) splitWords(false);
+                continue;
             }
-            //it is a comment, skip rest of the line!
-            for(int read = reader.read(); read!=-1 && read!='\n'; read = reader.read());
-            sb.append('\n');
-            return true;
+            if (block != null) splitWords(true);
+            if (dialect.isQuote((char) c)) {
+                scanQuoted((char) c);
+            } else if ((c == '-' && peek() == '-') || c == '#') {
+                if (c == '-') pos++;
+                skipLineComment();
+                if (lineChecks ? endLine() : append('\n')) return true;
+            } else if (c == '/' && peek() == '*') {
+                pos++;
+                scanBlockComment();
+            } else if (c == '$') {
+                scanDollarQuoted();
+            } else if (c == '\n') {
+                if (endLine()) return true;
+            } else if (c == stmtSeparator && delimiter == null) {
+                if (block != null) block.separator();
+                if (block != null && block.isOpen()) stmt.append((char) c);
+                else if (scanSeparator(block != null && block.keepsSeparator())) return true;
+            } else {
+                stmt.append((char) c);
+            }
+            wordsFrom = stmt.length();
         }
-    };
+        return lineChecks && endLine();
+    }
 
-    private final Parser BLOCK_COMMENT_PARSER = new Parser(){
-        public boolean parse(Reader reader, StringBuilder sb) throws IOException {
-            int curChar = reader.read();
-            if(curChar!='/') return false;
-            int nextChar = reader.read();
-            if(nextChar!='*'){
-                return false;
+    private boolean isSpecial(char c) {
+        return c < special.length && special[c];
+    }
+
+    private boolean append(char c) {
+        stmt.append(c);
+        return false;
+    }
+
+    /**
+     * Scans a quoted string or identifier, the opening quote was just read.
+     */
+    private void scanQuoted(char quote) throws IOException {
+        int initial = stmt.length();
+        char closing = dialect.closingQuote(quote);
+        boolean escapes = dialect.hasBackslashEscapes() && quote != '`';
+        stmt.append(quote);
+        while (fill()) {
+            int start = pos;
+            while (pos < limit && buffer[pos] != closing && !(escapes && buffer[pos] == '\\')) pos++;
+            if (pos < limit && buffer[pos] == closing) {
+                pos++;
+                stmt.append(buffer, start, pos - start);
+                return;
             }
-            //it is the start of block comment, extract comment
-            StringBuilder comment = new StringBuilder();
-            while (true){
-                int read;
-                for(read = reader.read(); read!=-1 && read!='*'; read = reader.read())
-                    comment.append(toChars(read));
-                if(read==-1)
-                    throw new RuntimeException("Unterminated block comment, missing */ after: " + comment.toString());
-                comment.append(toChars(read));
-                read = reader.read();
-                if(read==-1)
-                    throw new RuntimeException("Unterminated block comment, missing */ after: " + comment.toString());
-                comment.append(toChars(read));
-                if(read=='/') break;
+            stmt.append(buffer, start, pos - start);
+            if (pos < limit) {
+                //escaped character
+                pos++;
+                stmt.append('\\');
+                int c = read();
+                if (c != EOF) stmt.append((char) c);
             }
-            if(sb.length()>0) //include block comment if not at the beginning of sentence.
-                sb.append("/*").append(comment);
-            return true;
         }
-    };
+        throw new RuntimeException("Unterminated string " + stmt.substring(initial));
+    }
 
-    private final Parser END_OF_STATEMENT_PARSER = new Parser(){
-        public boolean parse(Reader reader, StringBuilder sb) throws IOException {
-            int curChar = reader.read();
-            if(curChar!=stmtSeparator) return false;
-            if(curChar==-1) return true;
-            //expect blank after it
-            for (int c=reader.read(); c!='\n' && c!=-1; c = reader.read())
-                if(!Character.isWhitespace(c)) return false;
-            return true;
+    /**
+     * Scans a dollar quoted string, e.g. <code>$body$ ... $body$</code>, the opening $ was just read. Anything
+     * else starting with $, e.g. parameters, is plain text.
+     */
+    private void scanDollarQuoted() throws IOException {
+        int initial = stmt.length();
+        stmt.append('$');
+        //part of an identifier
+        if (initial > 0 && isWordChar(stmt.charAt(initial - 1))) return;
+        int c = peek();
+        if (c != '$' && !(Character.isLetter(c) || c == '_')) return;
+        while ((c = peek()) != EOF && (Character.isLetterOrDigit(c) || c == '_')) {
+            stmt.append((char) c);
+            pos++;
         }
-    };
+        if (c != '$') return;
+        pos++;
+        stmt.append('$');
+        String tag = stmt.substring(initial);
+        int bodyStart = stmt.length();
+        while (fill()) {
+            int start = pos;
+            while (pos < limit && buffer[pos] != '$') pos++;
+            if (pos < limit) pos++;
+            stmt.append(buffer, start, pos - start);
+            int end = stmt.length();
+            if (stmt.charAt(end - 1) == '$' && end - bodyStart >= tag.length() && stmt.indexOf(tag, end - tag.length()) == end - tag.length())
+                return;
+        }
+        throw new RuntimeException("Unterminated dollar quoted string " + stmt.substring(initial));
+    }
 
-    private final Parser DEFAULT_PARSER = new Parser(){
-        public boolean parse(Reader reader, StringBuilder sb) throws IOException {
-            int curChar = reader.read();
-            if(curChar==-1) return false;
-            sb.append(toChars(curChar));
+    /**
+     * Called at the end of a line in dialects with line commands: a batch separator alone in the line ends the
+     * statement, as does a custom delimiter at the end of the line. A DELIMITER command sets the custom delimiter.
+     *
+     * @return true if the statement ended
+     */
+    private boolean endLine() {
+        int start = lineStart, end = stmt.length();
+        while (start < end && stmt.charAt(start) <= ' ') start++;
+        while (end > start && stmt.charAt(end - 1) <= ' ') end--;
+        if (batchSeparator != null && end - start == batchSeparator.length()
+                && stmt.substring(start, end).equalsIgnoreCase(batchSeparator)) {
+            stmt.setLength(lineStart);
             return true;
         }
-    };
-
-    private final Parser END_OF_SCRIPT = new Parser(){
-        public boolean parse(Reader reader, StringBuilder sb) throws IOException {
-            return reader.read()==-1;
+        if (dialect.hasDelimiterCommand()) {
+            if (isBlank(0, lineStart) && end - start > DELIMITER_COMMAND.length()
+                    && stmt.substring(start, start + DELIMITER_COMMAND.length()).equalsIgnoreCase(DELIMITER_COMMAND)
+                    && stmt.charAt(start + DELIMITER_COMMAND.length()) <= ' ') {
+                String value = stmt.substring(start + DELIMITER_COMMAND.length(), end).trim();
+                delimiter = value.equals(String.valueOf(stmtSeparator)) ? null : value;
+                stmt.setLength(0);
+                lineStart = wordsFrom = 0;
+                return false;
+            }
+            if (delimiter != null && end - start >= delimiter.length() && stmt.substring(end - delimiter.length(), end).equals(delimiter)) {
+                stmt.setLength(end - delimiter.length());
+                return true;
+            }
         }
-    };
+        stmt.append('\n');
+        lineStart = stmt.length();
+        return false;
+    }
 
-    private final Parser[] parsers = new Parser[]{STRING_PARSER, COMMENT_PARSER, BLOCK_COMMENT_PARSER, END_OF_STATEMENT_PARSER, DEFAULT_PARSER, END_OF_SCRIPT};
+    private boolean isBlank(int start, int end) {
+        for (int i = start; i < end; i++) if (stmt.charAt(i) > ' ') return false;
+        return true;
+    }
 
-    private final Reader reader;
-    private String nextStatement;
+    /**
+     * Passes the words of the statement not split yet to the block tracker.
+     *
+     * @param complete true if the last word ends here, otherwise it may continue in the next run of plain text
+     */
+    private void splitWords(boolean complete) {
+        int i = wordsFrom, end = stmt.length();
+        while (i < end) {
+            char c = stmt.charAt(i);
+            if (!isWordChar(c)) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < end && isWordChar(stmt.charAt(i))) i++;
+            if (i == end && !complete) {
+                wordsFrom = start;
+                return;
+            }
+            if (Character.isLetter(c)) {
+                block.word(i - start > SqlDialect.Block.MAX_WORD_LENGTH ? "" : stmt.substring(start, i).toUpperCase(Locale.ROOT));
+            }
+        }
+        wordsFrom = end;
+    }
 
-    StatementIterator(Reader reader) {
-        this(reader, ';');
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '#';
     }
 
-    StatementIterator(Reader reader, char stmtSeparator) {
-        this.reader = reader.markSupported()? reader: new BufferedReader(reader);
-        this.stmtSeparator = stmtSeparator;
+    private void skipLineComment() throws IOException {
+        while (fill()) {
+            while (pos < limit) {
+                if (buffer[pos++] == '\n') return;
+            }
+        }
     }
 
-    private String getNextStatement() throws IOException {
-        StringBuilder sb = new StringBuilder();
-        Parser p;
-        do{
-            p = parseNext(reader, sb);
-        }while (p!=END_OF_STATEMENT_PARSER && p!=END_OF_SCRIPT);
-        String stmt = sb.toString().trim();
-        if(p!=END_OF_SCRIPT && stmt.isEmpty())
-            return getNextStatement();
-        return stmt.isEmpty()?null:stmt;
+    private void scanBlockComment() throws IOException {
+        int initial = stmt.length();
+        stmt.append("/*");
+        boolean star = false, lineStart = true, directive = false;
+        int c;
+        while ((c = read()) != EOF) {
+            stmt.append((char) c);
+            if (star && c == '/') {
+                //include block comment if not at the beginning of sentence.
+                if (initial == 0 && !directive) stmt.setLength(0);
+                return;
+            }
+            star = c == '*';
+            if (c == '@' && lineStart) directive = true;
+            lineStart = c == '\n' || (lineStart && Character.isWhitespace(c));
+        }
+        throw new RuntimeException("Unterminated block comment, missing */ after: " + stmt.substring(initial + 2));
     }
 
-    Parser parseNext(Reader reader, StringBuilder sb) throws IOException {
-        reader.mark(10);
-        for (Parser parser : parsers) {
-            if(parser.parse(reader, sb)) return parser;
-            reader.reset();
+    /**
+     * Called after reading a separator, it is the end of the statement only if followed by blanks up to the end of
+     * the line. Otherwise the separator and the blanks are kept as part of the statement.
+     */
+    private boolean scanSeparator(boolean keep) throws IOException {
+        int mark = stmt.length();
+        stmt.append(stmtSeparator);
+        int c;
+        while ((c = peek()) != EOF && c != '\n') {
+            if (!Character.isWhitespace(c)) return false;
+            stmt.append((char) c);
+            pos++;
         }
-        //nothing matched?
-        throw new RuntimeException("no parsers matched!, current content:" + sb.toString());
+        if (c == '\n') pos++;
+        stmt.setLength(keep ? mark + 1 : mark);
+        return true;
+    }
+
+    /**
+     * Sets the view to the statement without leading and trailing blanks.
+     *
+     * @return false if the statement is blank
+     */
+    private boolean trim() {
+        int start = 0, end = stmt.length();
+        while (start < end && stmt.charAt(start) <= ' ') start++;
+        while (end > start && stmt.charAt(end - 1) <= ' ') end--;
+        view.start = start;
+        view.end = end;
+        return start < end;
+    }
+
+    private boolean fill() throws IOException {
+        if (pos < limit) return true;
+        if (limit == EOF) return false;
+        int n;
+        do {
+            n = reader.read(buffer, 0, buffer.length);
+        } while (n == 0);
+        pos = 0;
+        limit = n;
+        return n > 0;
+    }
+
+    private int read() throws IOException {
+        return fill() ? buffer[pos++] : EOF;
+    }
+
+    private int peek() throws IOException {
+        return fill() ? buffer[pos] : EOF;
     }
 
     public boolean hasNext() {
@@ -161,10 +369,50 @@ public class StatementIterator implements Iterator<String> {
         throw new NoSuchElementException();
     }
 
+    /**
+     * Returns the next statement as a view of the internal buffer, without copying it to a String. Useful to inspect
+     * large statements, e.g. for hashing or classification, with a single copy of their text in memory. The view is
+     * only valid until the next call to this iterator.
+     *
+     * @return the next statement, or null if there are no more
+     */
+    CharSequence nextSequence() {
+        if (nextStatement != null) return next();
+        try {
+            return scanNext() ? view : null;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public void remove() {
         throw new UnsupportedOperationException("not supported");
     }
-}
 
+    /**
+     * Trimmed statement in the statement buffer
+     */
+    private class StatementView implements CharSequence {
+        int start;
+        int end;
+
+        public int length() {
+            return end - start;
+        }
+
+        public char charAt(int index) {
+            if (index < 0 || index >= length()) throw new IndexOutOfBoundsException("index: " + index);
+            return stmt.charAt(start + index);
+        }
 
+        public CharSequence subSequence(int from, int to) {
+            if (from < 0 || to > length() || from > to) throw new IndexOutOfBoundsException("from: " + from + ", to: " + to);
+            return stmt.substring(start + from, start + to);
+        }
 
+        @Override
+        public String toString() {
+            return stmt.substring(start, end);
+        }
+    }
+}
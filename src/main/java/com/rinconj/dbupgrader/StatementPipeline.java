@@ -0,0 +1,90 @@
+package com.rinconj.dbupgrader;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Iterator reading the statements of another iterator, usually a {@link StatementIterator}, ahead in a background
+ * thread, so the script is parsed while the previous statements are executed. The statements are handed over through
+ * a bounded queue: the parser waits when it's <i>depth</i> statements ahead.
+ * <p>
+ * Parsing failures are rethrown by {@link #hasNext()} in the consumer thread. Closing the pipeline, e.g. after a
+ * failed statement, stops the parser.
+ */
+class StatementPipeline implements Iterator<String>, Closeable {
+    private static final Object END = new Object();
+
+    private final BlockingQueue<Object> queue;
+    private final Thread producer;
+    private volatile boolean closed;
+    private Object next;
+
+    StatementPipeline(final Iterator<String> source, int depth, String name) {
+        this.queue = new ArrayBlockingQueue<Object>(depth);
+        this.producer = new Thread(new Runnable() {
+            public void run() {
+                produce(source);
+            }
+        }, "dbupgrader-parser-" + name);
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    private void produce(Iterator<String> source) {
+        try {
+            try {
+                while (!closed && source.hasNext()) queue.put(source.next());
+                queue.put(END);
+            } catch (RuntimeException e) {
+                queue.put(e);
+            } catch (Error e) {
+                queue.put(e);
+            }
+        } catch (InterruptedException e) {
+            //closed by the consumer
+        }
+    }
+
+    public boolean hasNext() {
+        if (next == null) {
+            if (closed) return false;
+            try {
+                next = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted reading the script", e);
+            }
+        }
+        if (next instanceof RuntimeException) throw (RuntimeException) next;
+        if (next instanceof Error) throw (Error) next;
+        return next != END;
+    }
+
+    public String next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        String stmt = (String) next;
+        next = null;
+        return stmt;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stops the parser thread and waits for it to finish, so the source can be safely closed.
+     */
+    public void close() {
+        closed = true;
+        producer.interrupt();
+        queue.clear();
+        try {
+            producer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.rinconj.dbupgrader;
+
+import java.util.Locale;
+
+/**
+ * Rough classification of SQL statements, based on their leading keyword.
+ */
+public enum StatementType {
+    /** Schema changes: CREATE, ALTER, DROP, etc. */
+    DDL,
+    /** Data changes returning only an update count: INSERT, UPDATE, DELETE, MERGE */
+    DML,
+    /** Statements that may return a result set, including data changes with a RETURNING (or T-SQL OUTPUT) clause */
+    QUERY,
+    /** Anything else e.g. procedure calls, PL/SQL blocks */
+    OTHER;
+
+    /**
+     * Classifies the given statement. Leading blanks and comments are ignored.
+     *
+     * @param sql
+     * @return the statement type, never null
+     */
+    public static StatementType of(CharSequence sql) {
+        int i = skipComments(sql, 0);
+        int start = i;
+        while (i < sql.length() && Character.isLetter(sql.charAt(i))) i++;
+        String keyword = sql.subSequence(start, i).toString().toUpperCase(Locale.ROOT);
+        if (keyword.equals("INSERT") || keyword.equals("UPDATE") || keyword.equals("DELETE") || keyword.equals("MERGE"))
+            return returnsRows(sql, i) ? QUERY : DML;
+        if (keyword.equals("CREATE") || keyword.equals("ALTER") || keyword.equals("DROP") || keyword.equals("TRUNCATE")
+                || keyword.equals("RENAME") || keyword.equals("COMMENT") || keyword.equals("GRANT") || keyword.equals("REVOKE"))
+            return DDL;
+        if (keyword.equals("SELECT") || keyword.equals("WITH") || keyword.equals("VALUES") || keyword.equals("SHOW")
+                || keyword.equals("EXPLAIN") || keyword.equals("TABLE"))
+            return QUERY;
+        return OTHER;
+    }
+
+    /**
+     * @return true if the statement has a RETURNING or OUTPUT clause, i.e. the keyword out of quotes, comments and
+     * parentheses
+     */
+    private static boolean returnsRows(CharSequence sql, int i) {
+        int depth = 0;
+        while (i < sql.length()) {
+            char c = sql.charAt(i);
+            if (c == '\'' || c == '"' || c == '`' || c == '[') {
+                int end = indexOf(sql, c == '[' ? "]" : String.valueOf(c), i + 1);
+                i = end < 0 ? sql.length() : end + 1;
+            } else if (startsWith(sql, "/*", i) || startsWith(sql, "--", i)) {
+                i = skipComments(sql, i);
+            } else if (c == '(') {
+                depth++;
+                i++;
+            } else if (c == ')') {
+                depth--;
+                i++;
+            } else if (Character.isLetter(c)) {
+                int start = i;
+                while (i < sql.length() && isIdentifierPart(sql.charAt(i))) i++;
+                if (depth == 0 && start > 0 && !isIdentifierPart(sql.charAt(start - 1)) && sql.charAt(start - 1) != '.') {
+                    String word = sql.subSequence(start, i).toString().toUpperCase(Locale.ROOT);
+                    if (word.equals("RETURNING") || word.equals("OUTPUT")) return true;
+                }
+            } else {
+                i++;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '#' || c == '@';
+    }
+
+    private static int skipComments(CharSequence sql, int i) {
+        while (i < sql.length()) {
+            if (Character.isWhitespace(sql.charAt(i))) {
+                i++;
+            } else if (startsWith(sql, "/*", i)) {
+                int end = indexOf(sql, "*/", i + 2);
+                i = end < 0 ? sql.length() : end + 2;
+            } else if (startsWith(sql, "--", i)) {
+                int end = indexOf(sql, "\n", i);
+                i = end < 0 ? sql.length() : end + 1;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    private static boolean startsWith(CharSequence sql, String prefix, int i) {
+        if (i + prefix.length() > sql.length()) return false;
+        for (int j = 0; j < prefix.length(); j++)
+            if (sql.charAt(i + j) != prefix.charAt(j)) return false;
+        return true;
+    }
+
+    private static int indexOf(CharSequence sql, String str, int from) {
+        for (int i = from; i + str.length() <= sql.length(); i++)
+            if (startsWith(sql, str, i)) return i;
+        return -1;
+    }
+}
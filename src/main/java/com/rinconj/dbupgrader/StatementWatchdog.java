@@ -0,0 +1,205 @@
+package com.rinconj.dbupgrader;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+
+/**
+ * Bounds the execution time of the statements of a sync, and reports the slow ones. Every statement gets a query
+ * timeout of the statement timeout, capped by the time left of the version budget, and no statement is started once
+ * the budget is exhausted. As drivers may ignore query timeouts, a daemon thread also cancels the statements running
+ * for longer, and periodically logs the statements running for longer than the slow statement threshold with their
+ * position in the script.
+ */
+class StatementWatchdog {
+    private final static Logger LOGGER = Logger.getLogger(StatementWatchdog.class.getName());
+    private static final long MIN_TICK_MILLIS = 10;
+    private static final long MAX_TICK_MILLIS = 1000;
+    private static final int MAX_SQL_LENGTH = 200;
+
+    /**
+     * Watchdog without limits nor reports.
+     */
+    static final StatementWatchdog DISABLED = new StatementWatchdog(0, 0, 0);
+
+    private final long statementTimeoutMillis;
+    private final long versionTimeoutMillis;
+    private final long slowStatementMillis;
+    private final Set<Execution> running = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService scheduler;
+    private volatile String version;
+    //System.nanoTime() deadline of the current version, if it has a budget
+    private volatile long versionDeadline;
+
+    /**
+     * @param statementTimeoutMillis maximum execution time of a statement, 0 for none
+     * @param versionTimeoutMillis   maximum execution time of the statements of a version step, 0 for none
+     * @param slowStatementMillis    execution time from which statements are reported, 0 for none
+     */
+    StatementWatchdog(long statementTimeoutMillis, long versionTimeoutMillis, long slowStatementMillis) {
+        this.statementTimeoutMillis = statementTimeoutMillis;
+        this.versionTimeoutMillis = versionTimeoutMillis;
+        this.slowStatementMillis = slowStatementMillis;
+        long tick = Long.MAX_VALUE;
+        for (long millis : new long[]{statementTimeoutMillis, versionTimeoutMillis, slowStatementMillis})
+            if (millis > 0) tick = Math.min(tick, millis / 4);
+        if (tick == Long.MAX_VALUE) {
+            scheduler = null;
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "dbupgrader-watchdog");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        tick = Math.max(MIN_TICK_MILLIS, Math.min(MAX_TICK_MILLIS, tick));
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                check();
+            }
+        }, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts the budget of a version step.
+     *
+     * @param fromVersion the version upgraded from, or -1 when the current scripts are applied to an empty database
+     */
+    void startVersion(int fromVersion, int toVersion) {
+        version = (fromVersion < 0 ? "current.sql" : String.valueOf(fromVersion)) + " to " + toVersion;
+        versionDeadline = versionTimeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(versionTimeoutMillis) : 0;
+    }
+
+    /**
+     * Applies the query timeout to the statement and watches it until {@link #finish(Execution)}.
+     *
+     * @param sql the statement, or a description of it e.g. for batches
+     * @throws SQLTimeoutException if the version budget is exhausted
+     */
+    Execution start(Statement statement, String resource, int ordinal, String sql) throws SQLException {
+        long timeout = statementTimeoutMillis;
+        long deadline = versionDeadline;
+        if (deadline != 0) {
+            long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (left <= 0) throw new SQLTimeoutException(format("Upgrade from %s exceeded its time budget of %dms before statement #%d of %s",
+                    version, versionTimeoutMillis, ordinal, resource));
+            timeout = timeout > 0 ? Math.min(timeout, left) : left;
+        }
+        //in seconds, rounded up so it doesn't fire before the watchdog
+        if (timeout > 0) statement.setQueryTimeout((int) Math.min(Integer.MAX_VALUE, (timeout + 999) / 1000));
+        Execution execution = new Execution(statement, resource, ordinal, sql);
+        if (scheduler != null) running.add(execution);
+        return execution;
+    }
+
+    /**
+     * Stops watching the statement, reporting it if it was slow.
+     */
+    void finish(Execution execution) {
+        execution.finish();
+        running.remove(execution);
+        long millis = execution.elapsedMillis(System.nanoTime());
+        if (slowStatementMillis > 0 && millis >= slowStatementMillis)
+            LOGGER.warning(format("Slow statement #%d of %s took %dms: %s", execution.ordinal, execution.resource, millis, abbreviate(execution.sql)));
+    }
+
+    /**
+     * Stops watching the failed statement.
+     *
+     * @return the failure, with the reason if the statement was cancelled or timed out
+     */
+    SQLException failed(Execution execution, SQLException e) {
+        finish(execution);
+        String reason = execution.cancelReason;
+        if (reason == null && e instanceof SQLTimeoutException) reason = "timed out";
+        if (reason == null) return e;
+        return new SQLTimeoutException(format("Statement #%d of %s %s after %dms", execution.ordinal, execution.resource, reason,
+                execution.elapsedMillis(System.nanoTime())), e.getSQLState(), e.getErrorCode(), e);
+    }
+
+    void close() {
+        if (scheduler != null) scheduler.shutdownNow();
+    }
+
+    private void check() {
+        long now = System.nanoTime();
+        boolean overBudget = versionDeadline != 0 && now - versionDeadline > 0;
+        List<Execution> slow = new ArrayList<Execution>();
+        for (Execution execution : running) {
+            long millis = execution.elapsedMillis(now);
+            if (statementTimeoutMillis > 0 && millis > statementTimeoutMillis)
+                execution.cancel(format("exceeded the statement timeout of %dms", statementTimeoutMillis));
+            else if (overBudget)
+                execution.cancel(format("exceeded the time budget of %dms of the upgrade from %s", versionTimeoutMillis, version));
+            if (slowStatementMillis > 0 && millis >= execution.nextReportMillis) {
+                execution.nextReportMillis += slowStatementMillis;
+                slow.add(execution);
+            }
+        }
+        if (slow.isEmpty()) return;
+        StringBuilder report = new StringBuilder(slow.size() + " slow statement(s) running:");
+        for (Execution execution : slow)
+            report.append(format("%n  #%d of %s for %dms: %s", execution.ordinal, execution.resource, execution.elapsedMillis(now), abbreviate(execution.sql)));
+        LOGGER.warning(report.toString());
+    }
+
+    private static String abbreviate(String sql) {
+        String line = sql.replaceAll("\\s+", " ").trim();
+        return line.length() > MAX_SQL_LENGTH ? line.substring(0, MAX_SQL_LENGTH) + "..." : line;
+    }
+
+    /**
+     * A watched statement execution.
+     */
+    class Execution {
+        private final Statement statement;
+        private final String resource;
+        private final int ordinal;
+        private final String sql;
+        private final long start = System.nanoTime();
+        private long nextReportMillis = slowStatementMillis;
+        private volatile String cancelReason;
+        //guarded by this, so a finished statement reused for the next execution is never cancelled
+        private boolean finished;
+
+        private Execution(Statement statement, String resource, int ordinal, String sql) {
+            this.statement = statement;
+            this.resource = resource;
+            this.ordinal = ordinal;
+            this.sql = sql;
+        }
+
+        private long elapsedMillis(long now) {
+            return TimeUnit.NANOSECONDS.toMillis(now - start);
+        }
+
+        private synchronized void finish() {
+            finished = true;
+        }
+
+        private synchronized void cancel(String reason) {
+            if (finished || cancelReason != null) return;
+            cancelReason = reason;
+            LOGGER.warning(format("Cancelling statement #%d of %s, %s: %s", ordinal, resource, reason, abbreviate(sql)));
+            try {
+                statement.cancel();
+            } catch (SQLException e) {
+                LOGGER.log(Level.WARNING, "Failed cancelling statement #" + ordinal + " of " + resource, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.rinconj.dbupgrader;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Listener collecting the timings of every version step: total duration, statement count, rows affected and a
+ * histogram of the statement durations, with power of two nanosecond buckets. Statements executed outside a version
+ * step (i.e. the current.sql scripts of an empty database) are collected in a step with from and to versions -1.
+ * <p>
+ * The collected steps can be exported as JSON with {@link #toJson()}, e.g. to compare migration times across
+ * releases.
+ */
+public class TimingCollector implements UpgradeListener {
+    private final List<VersionTiming> versions = new ArrayList<VersionTiming>();
+    private VersionTiming current;
+
+    public static class VersionTiming {
+        private static final int BUCKETS = 64;
+
+        private final int fromVersion;
+        private final int toVersion;
+        private long nanos;
+        private int statements;
+        private int failures;
+        private long rows;
+        private long maxStatementNanos;
+        private String slowestStatement;
+        private final long[] histogram = new long[BUCKETS];
+
+        VersionTiming(int fromVersion, int toVersion) {
+            this.fromVersion = fromVersion;
+            this.toVersion = toVersion;
+        }
+
+        void addStatement(String resource, int ordinal, long updateCount, long nanos) {
+            statements++;
+            if (updateCount > 0) rows += updateCount;
+            histogram[bucket(nanos)]++;
+            if (nanos > maxStatementNanos) {
+                maxStatementNanos = nanos;
+                slowestStatement = resource + "#" + ordinal;
+            }
+        }
+
+        static int bucket(long nanos) {
+            return nanos <= 1 ? 0 : BUCKETS - Long.numberOfLeadingZeros(nanos - 1);
+        }
+
+        public int getFromVersion() {
+            return fromVersion;
+        }
+
+        public int getToVersion() {
+            return toVersion;
+        }
+
+        /**
+         * @return the duration of the whole step, 0 if it didn't finish
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        public int getStatements() {
+            return statements;
+        }
+
+        public int getFailures() {
+            return failures;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+
+        public long getMaxStatementNanos() {
+            return maxStatementNanos;
+        }
+
+        /**
+         * @return the slowest statement as resource#ordinal
+         */
+        public String getSlowestStatement() {
+            return slowestStatement;
+        }
+
+        /**
+         * @return the number of statements with a duration in (2^(i-1), 2^i] nanoseconds, for every bucket i
+         */
+        public long[] getHistogram() {
+            return histogram.clone();
+        }
+
+        void toJson(StringBuilder sb) {
+            sb.append("{\"from\":").append(fromVersion).append(",\"to\":").append(toVersion)
+                    .append(",\"nanos\":").append(nanos).append(",\"statements\":").append(statements)
+                    .append(",\"failures\":").append(failures).append(",\"rows\":").append(rows)
+                    .append(",\"maxStatementNanos\":").append(maxStatementNanos)
+                    .append(",\"slowestStatement\":");
+            appendString(sb, slowestStatement);
+            sb.append(",\"histogram\":[");
+            boolean first = true;
+            for (int i = 0; i < histogram.length; i++) {
+                if (histogram[i] == 0) continue;
+                if (!first) sb.append(',');
+                first = false;
+                sb.append("{\"le\":").append(i == BUCKETS - 1 ? Long.MAX_VALUE : 1L << i).append(",\"count\":").append(histogram[i]).append('}');
+            }
+            sb.append("]}");
+        }
+    }
+
+    public synchronized void versionStarted(int fromVersion, int toVersion) {
+        current = new VersionTiming(fromVersion, toVersion);
+        versions.add(current);
+    }
+
+    public synchronized void versionFinished(int fromVersion, int toVersion, long nanos) {
+        if (current != null) current.nanos = nanos;
+        current = null;
+    }
+
+    public synchronized void statementFinished(String resource, int ordinal, String sql, long updateCount, long nanos) {
+        currentVersion().addStatement(resource, ordinal, updateCount, nanos);
+    }
+
+    public synchronized void statementFailed(String resource, int ordinal, String sql, SQLException error, long nanos) {
+        VersionTiming timing = currentVersion();
+        timing.addStatement(resource, ordinal, 0, nanos);
+        timing.failures++;
+        current = null;
+    }
+
+    private VersionTiming currentVersion() {
+        if (current == null) versionStarted(-1, -1);
+        return current;
+    }
+
+    /**
+     * @return the version steps collected so far, in execution order
+     */
+    public synchronized List<VersionTiming> getVersions() {
+        return Collections.unmodifiableList(new ArrayList<VersionTiming>(versions));
+    }
+
+    public synchronized void clear() {
+        versions.clear();
+        current = null;
+    }
+
+    /**
+     * @return the collected steps as a JSON document: <code>{"versions":[{"from":1,"to":2,"nanos":...,
+     * "histogram":[{"le":1024,"count":3},...]},...]}</code>. Only non empty histogram buckets are included.
+     */
+    public synchronized String toJson() {
+        StringBuilder sb = new StringBuilder("{\"versions\":[");
+        for (int i = 0; i < versions.size(); i++) {
+            if (i > 0) sb.append(',');
+            versions.get(i).toJson(sb);
+        }
+        return sb.append("]}").toString();
+    }
+
+    private static void appendString(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c < ' ') sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        sb.append('"');
+    }
+}
@@ -0,0 +1,47 @@
+package com.rinconj.dbupgrader;
+
+import java.sql.SQLException;
+
+/**
+ * Receives the progress of a {@link DbUpgrader} sync. All the methods have empty default implementations, so only
+ * the relevant events need to be implemented. Durations are in nanoseconds.
+ * <p>
+ * Listeners are called synchronously by the thread running the sync, so they should be fast. The statement events
+ * of a <b>@parallel</b> region are called by its worker threads, concurrently.
+ */
+public interface UpgradeListener {
+
+    /**
+     * A version step starts, i.e. an upgrade from version-1 to version, or a rollback from version to version-1.
+     */
+    default void versionStarted(int fromVersion, int toVersion) {
+    }
+
+    default void versionFinished(int fromVersion, int toVersion, long nanos) {
+    }
+
+    default void scriptStarted(String resource) {
+    }
+
+    /**
+     * @param statements number of statements executed
+     */
+    default void scriptFinished(String resource, int statements, long nanos) {
+    }
+
+    /**
+     * @param ordinal position of the statement in the script, starting at 1
+     */
+    default void statementStarted(String resource, int ordinal, String sql) {
+    }
+
+    /**
+     * @param updateCount rows affected, or -1 if unknown e.g. for queries and DDL. For batched statements the
+     *                    duration is the execution time of the batch divided evenly among its statements.
+     */
+    default void statementFinished(String resource, int ordinal, String sql, long updateCount, long nanos) {
+    }
+
+    default void statementFailed(String resource, int ordinal, String sql, SQLException error, long nanos) {
+    }
+}
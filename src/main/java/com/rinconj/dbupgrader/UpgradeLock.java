@@ -0,0 +1,180 @@
+package com.rinconj.dbupgrader;
+
+import javax.sql.DataSource;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+
+/**
+ * Cluster wide lock on the upgrade of a schema, implemented with a row in a lock table of the database, so only one
+ * node runs the upgrade at a time. The lock is a lease: it expires unless renewed, so a crashed holder doesn't block
+ * the other nodes forever. While held, a background thread renews it every third of the lease duration.
+ * <p>
+ * Lease expiry is checked against the clock of the nodes, which should be synchronized well within the lease
+ * duration.
+ */
+class UpgradeLock {
+    private final static Logger LOGGER = Logger.getLogger(UpgradeLock.class.getName());
+    private static final String CREATE_LOCK_TABLE_SQL = "CREATE TABLE %s(id varchar(100) NOT NULL, owner varchar(255) NOT NULL, " +
+            "expires TIMESTAMP NOT NULL, PRIMARY KEY (id))";
+    private static final String INSERT_LOCK_SQL = "INSERT INTO %s(id, owner, expires) values(?,?,?)";
+    private static final String TAKE_EXPIRED_LOCK_SQL = "UPDATE %s SET owner=?, expires=? WHERE id=? AND expires<?";
+    private static final String RENEW_LOCK_SQL = "UPDATE %s SET expires=? WHERE id=? AND owner=?";
+    private static final String DELETE_LOCK_SQL = "DELETE FROM %s WHERE id=? AND owner=?";
+
+    private final DataSource dataSource;
+    private final String table;
+    private final String schemaId;
+    private final long leaseMillis;
+    private final String owner;
+    private volatile Thread renewer;
+
+    UpgradeLock(DataSource dataSource, String table, String schemaId, long leaseMillis) {
+        this.dataSource = dataSource;
+        this.table = table;
+        this.schemaId = schemaId;
+        this.leaseMillis = leaseMillis;
+        this.owner = ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID();
+    }
+
+    /**
+     * Acquires the lock if it's free or its lease expired, and starts renewing it.
+     *
+     * @return true if acquired
+     */
+    boolean tryAcquire() throws SQLException {
+        Connection con = dataSource.getConnection();
+        try {
+            createTableIfMissing(con);
+            long now = System.currentTimeMillis();
+            Timestamp expires = new Timestamp(now + leaseMillis);
+            boolean acquired;
+            try {
+                acquired = update(con, format(INSERT_LOCK_SQL, table), schemaId, owner, expires) == 1;
+            } catch (SQLException e) {
+                //a duplicate key means the lock is taken, anything else is a failure
+                if (e.getSQLState() != null && !e.getSQLState().startsWith("23")) throw e;
+                if (!con.getAutoCommit()) con.rollback();
+                acquired = update(con, format(TAKE_EXPIRED_LOCK_SQL, table), owner, expires, schemaId, new Timestamp(now)) == 1;
+                if (acquired) LOGGER.warning("Took over the expired upgrade lock of " + schemaId);
+            }
+            if (acquired) startRenewer();
+            return acquired;
+        } finally {
+            con.close();
+        }
+    }
+
+    /**
+     * Releases the lock, if held.
+     */
+    void release() {
+        Thread thread = renewer;
+        if (thread == null) return;
+        renewer = null;
+        thread.interrupt();
+        try {
+            thread.join();
+            Connection con = dataSource.getConnection();
+            try {
+                update(con, format(DELETE_LOCK_SQL, table), schemaId, owner);
+            } finally {
+                con.close();
+            }
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Failed releasing the upgrade lock of " + schemaId + ", it will expire", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    boolean isHeld() {
+        return renewer != null;
+    }
+
+    String getOwner() {
+        return owner;
+    }
+
+    private void startRenewer() {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                renewLoop();
+            }
+        }, "dbupgrader-lock-" + schemaId);
+        thread.setDaemon(true);
+        renewer = thread;
+        thread.start();
+    }
+
+    private void renewLoop() {
+        while (true) {
+            try {
+                Thread.sleep(Math.max(leaseMillis / 3, 1));
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                Connection con = dataSource.getConnection();
+                try {
+                    if (update(con, format(RENEW_LOCK_SQL, table), new Timestamp(System.currentTimeMillis() + leaseMillis), schemaId, owner) == 0)
+                        LOGGER.severe("Lost the upgrade lock of " + schemaId + ", another node may be upgrading at the same time");
+                } finally {
+                    con.close();
+                }
+            } catch (SQLException e) {
+                LOGGER.log(Level.WARNING, "Failed renewing the upgrade lock of " + schemaId, e);
+            }
+        }
+    }
+
+    private void createTableIfMissing(Connection con) throws SQLException {
+        if (tableExists(con)) return;
+        try {
+            Statement statement = con.createStatement();
+            try {
+                statement.execute(format(CREATE_LOCK_TABLE_SQL, table));
+            } finally {
+                statement.close();
+            }
+            if (!con.getAutoCommit()) con.commit();
+        } catch (SQLException e) {
+            //created by another node in the meantime
+            if (!con.getAutoCommit()) con.rollback();
+            if (!tableExists(con)) throw e;
+        }
+    }
+
+    private boolean tableExists(Connection con) throws SQLException {
+        ResultSet rs = con.getMetaData().getTables(null, null, table, null);
+        try {
+            return rs.next();
+        } finally {
+            rs.close();
+        }
+    }
+
+    /**
+     * Executes and commits the update.
+     */
+    private static int update(Connection con, String sql, Object... args) throws SQLException {
+        PreparedStatement ps = con.prepareStatement(sql);
+        try {
+            for (int i = 0; i < args.length; i++) ps.setObject(i + 1, args[i]);
+            int count = ps.executeUpdate();
+            if (!con.getAutoCommit()) con.commit();
+            return count;
+        } finally {
+            ps.close();
+        }
+    }
+}
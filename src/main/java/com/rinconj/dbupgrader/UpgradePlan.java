@@ -0,0 +1,262 @@
+package com.rinconj.dbupgrader;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The scripts a sync would execute, computed by {@link DbUpgrader#plan} without executing anything: the version
+ * steps in execution order, and for each script its statement counts by type.
+ */
+public class UpgradePlan {
+
+    public static class ScriptPlan {
+        private final String resource;
+        private final boolean found;
+        private final Map<StatementType, Integer> counts = new EnumMap<StatementType, Integer>(StatementType.class);
+        private int statements;
+        private int batchLoads;
+        private int parallelRegions;
+        private long length;
+        private boolean counted = true;
+
+        ScriptPlan(String resource, boolean found) {
+            this.resource = resource;
+            this.found = found;
+        }
+
+        void addStatement(StatementType type, int length) {
+            statements++;
+            this.length += length;
+            Integer count = counts.get(type);
+            counts.put(type, count == null ? 1 : count + 1);
+        }
+
+        void setCounted(boolean counted) {
+            this.counted = counted;
+        }
+
+        void addBatchLoad() {
+            batchLoads++;
+        }
+
+        void addParallelRegion() {
+            parallelRegions++;
+        }
+
+        public String getResource() {
+            return resource;
+        }
+
+        /**
+         * @return false for optional scripts that don't exist, e.g. most environment specific scripts
+         */
+        public boolean isFound() {
+            return found;
+        }
+
+        public int getStatements() {
+            return statements;
+        }
+
+        /**
+         * @return false if the statements of the script weren't counted, as it's too large to be cached
+         */
+        boolean isCounted() {
+            return counted;
+        }
+
+        /**
+         * @return the number of statements of the given type, batch loads are counted as DML
+         */
+        public int getCount(StatementType type) {
+            Integer count = counts.get(type);
+            return count == null ? 0 : count;
+        }
+
+        /**
+         * @return the number of <b>@batch</b> data file loads
+         */
+        public int getBatchLoads() {
+            return batchLoads;
+        }
+
+        public int getParallelRegions() {
+            return parallelRegions;
+        }
+
+        /**
+         * @return the total number of characters of the statements
+         */
+        public long getLength() {
+            return length;
+        }
+
+        @Override
+        public String toString() {
+            if (!found) return resource + ": not found";
+            StringBuilder sb = new StringBuilder(resource).append(": ").append(statements).append(" statement(s)");
+            for (Map.Entry<StatementType, Integer> count : counts.entrySet())
+                sb.append(", ").append(count.getValue()).append(' ').append(count.getKey());
+            if (batchLoads > 0) sb.append(", ").append(batchLoads).append(" batch load(s)");
+            if (parallelRegions > 0) sb.append(", ").append(parallelRegions).append(" parallel region(s)");
+            return sb.toString();
+        }
+    }
+
+    public static class Step {
+        private final int fromVersion;
+        private final int toVersion;
+        private final List<ScriptPlan> scripts;
+        private long estimatedNanos = -1;
+
+        Step(int fromVersion, int toVersion, List<ScriptPlan> scripts) {
+            this.fromVersion = fromVersion;
+            this.toVersion = toVersion;
+            this.scripts = Collections.unmodifiableList(scripts);
+        }
+
+        /**
+         * @return the version before the step, -1 for the current scripts applied to an empty database
+         */
+        public int getFromVersion() {
+            return fromVersion;
+        }
+
+        public int getToVersion() {
+            return toVersion;
+        }
+
+        public boolean isRollback() {
+            return fromVersion > toVersion;
+        }
+
+        public List<ScriptPlan> getScripts() {
+            return scripts;
+        }
+
+        public int getStatements() {
+            int statements = 0;
+            for (ScriptPlan script : scripts) statements += script.getStatements();
+            return statements;
+        }
+
+        /**
+         * @return the duration of the step in the timing history, or -1 if unknown
+         * @see UpgradePlan#estimate(TimingCollector)
+         */
+        public long getEstimatedNanos() {
+            return estimatedNanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(fromVersion < 0 ? "current" : String.valueOf(fromVersion)).append(" -> ").append(toVersion);
+            if (estimatedNanos >= 0) sb.append(" (~").append(estimatedNanos / 1000000).append("ms)");
+            for (ScriptPlan script : scripts) sb.append("\n  ").append(script);
+            return sb.toString();
+        }
+    }
+
+    private final int currentVersion;
+    private final int targetVersion;
+    private final List<Step> steps;
+
+    UpgradePlan(int currentVersion, int targetVersion, List<Step> steps) {
+        this.currentVersion = currentVersion;
+        this.targetVersion = targetVersion;
+        this.steps = Collections.unmodifiableList(steps);
+    }
+
+    /**
+     * @return the version of the database, -1 if it's an empty database
+     */
+    public int getCurrentVersion() {
+        return currentVersion;
+    }
+
+    public int getTargetVersion() {
+        return targetVersion;
+    }
+
+    public List<Step> getSteps() {
+        return steps;
+    }
+
+    /**
+     * @return true if the sync has nothing to do
+     */
+    public boolean isEmpty() {
+        return steps.isEmpty();
+    }
+
+    public int getStatements() {
+        int statements = 0;
+        for (Step step : steps) statements += step.getStatements();
+        return statements;
+    }
+
+    /**
+     * @return true if the statements of all the scripts were counted
+     */
+    boolean isCounted() {
+        for (Step step : steps)
+            for (ScriptPlan script : step.getScripts()) if (!script.isCounted()) return false;
+        return true;
+    }
+
+    /**
+     * Sets the estimated duration of the steps from the duration of the same steps in a previous run, e.g. on a
+     * staging database.
+     *
+     * @return the total estimated duration of the steps with history, in nanoseconds
+     */
+    public long estimate(TimingCollector history) {
+        long total = 0;
+        for (Step step : steps) {
+            step.estimatedNanos = -1;
+            for (TimingCollector.VersionTiming timing : history.getVersions()) {
+                if (timing.getFromVersion() == step.fromVersion && timing.getToVersion() == step.toVersion && timing.getNanos() > 0)
+                    step.estimatedNanos = timing.getNanos();
+            }
+            if (step.estimatedNanos > 0) total += step.estimatedNanos;
+        }
+        return total;
+    }
+
+    /**
+     * Sets the estimated duration of the steps from the applied scripts history of a database, e.g. a staging one.
+     * The latest run of every script of a step is used.
+     *
+     * @return the total estimated duration of the steps with history, in nanoseconds
+     * @see DbUpgrader#getHistory()
+     */
+    public long estimate(List<HistoryEntry> history) {
+        Map<String, HistoryEntry> latest = new HashMap<String, HistoryEntry>();
+        for (HistoryEntry entry : history)
+            latest.put(entry.getFromVersion() + ":" + entry.getToVersion() + ":" + entry.getScript(), entry);
+        long total = 0;
+        for (Step step : steps) {
+            step.estimatedNanos = -1;
+            for (HistoryEntry entry : latest.values()) {
+                if (entry.getFromVersion() == step.fromVersion && entry.getToVersion() == step.toVersion)
+                    step.estimatedNanos = Math.max(step.estimatedNanos, 0) + entry.getDurationMillis() * 1000000;
+            }
+            if (step.estimatedNanos > 0) total += step.estimatedNanos;
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Plan from ").append(currentVersion < 0 ? "empty db" : "version " + currentVersion)
+                .append(" to version ").append(targetVersion).append(": ");
+        if (steps.isEmpty()) return sb.append("nothing to do").toString();
+        sb.append(getStatements()).append(" statement(s)");
+        for (Step step : steps) sb.append('\n').append(step);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,89 @@
+package com.rinconj.dbupgrader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a {@link MultiDbUpgrader} run: the result of every target, in the order they were added.
+ */
+public class UpgradeReport {
+    public enum Status {SUCCESS, FAILED, SKIPPED}
+
+    public static class TargetResult {
+        private final String name;
+        private final Status status;
+        private final long durationNanos;
+        private final Exception error;
+
+        TargetResult(String name, Status status, long durationNanos, Exception error) {
+            this.name = name;
+            this.status = status;
+            this.durationNanos = durationNanos;
+            this.error = error;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public long getDurationNanos() {
+            return durationNanos;
+        }
+
+        /**
+         * @return the failure cause, null unless the status is FAILED
+         */
+        public Exception getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return name + ": " + status + " in " + durationNanos / 1000000 + "ms" + (error == null ? "" : " (" + error.getMessage() + ")");
+        }
+    }
+
+    private final List<TargetResult> results;
+    private final long durationNanos;
+
+    UpgradeReport(List<TargetResult> results, long durationNanos) {
+        this.results = Collections.unmodifiableList(results);
+        this.durationNanos = durationNanos;
+    }
+
+    public List<TargetResult> getResults() {
+        return results;
+    }
+
+    public List<TargetResult> getResults(Status status) {
+        List<TargetResult> filtered = new ArrayList<TargetResult>();
+        for (TargetResult result : results)
+            if (result.status == status) filtered.add(result);
+        return filtered;
+    }
+
+    /**
+     * @return true if all the targets were upgraded successfully
+     */
+    public boolean isSuccess() {
+        return getResults(Status.SUCCESS).size() == results.size();
+    }
+
+    /**
+     * @return total wall clock time of the run
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Upgraded %d target(s) in %dms: %d succeeded, %d failed, %d skipped", results.size(), durationNanos / 1000000,
+                getResults(Status.SUCCESS).size(), getResults(Status.FAILED).size(), getResults(Status.SKIPPED).size());
+    }
+}
@@ -0,0 +1,115 @@
+package com.rinconj.dbupgrader;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A sync running in the background, see {@link DbUpgrader#syncToVersionAsync(int, boolean, boolean)}. The future
+ * completes when the database is at the requested version, or exceptionally with the failure of the sync, so the
+ * readiness of an application can be gated on it while the rest of the application starts.
+ * <p>
+ * Cancelling the future stops the sync before its next statement: the running version is rolled back in
+ * transactional mode, and left partially applied otherwise (see {@link DbUpgrader#setResumable(boolean)}).
+ * <p>
+ * The progress is reported in statements, the total is computed from the {@link UpgradePlan} of the sync before it
+ * starts. It's unknown if any script is too large to be cached, as these aren't read just to count them.
+ */
+public class UpgradeTask extends CompletableFuture<Void> implements UpgradeListener, Runnable {
+    private final static Logger LOGGER = Logger.getLogger(UpgradeTask.class.getName());
+
+    private final DbUpgrader upgrader;
+    private final int targetVersion;
+    private final boolean allowDowngrade;
+    private final boolean emptyDb;
+    private volatile int currentVersion = -1;
+    private volatile long totalStatements = -1;
+    private final AtomicLong completedStatements = new AtomicLong();
+
+    UpgradeTask(DbUpgrader upgrader, int targetVersion, boolean allowDowngrade, boolean emptyDb) {
+        this.upgrader = upgrader;
+        this.targetVersion = targetVersion;
+        this.allowDowngrade = allowDowngrade;
+        this.emptyDb = emptyDb;
+    }
+
+    public void run() {
+        if (isDone()) return;
+        try {
+            try {
+                //the scripts too large to be cached aren't read twice
+                UpgradePlan plan = upgrader.plan(targetVersion, allowDowngrade, emptyDb, false);
+                currentVersion = plan.getCurrentVersion();
+                if (plan.isCounted()) totalStatements = plan.getStatements();
+            } catch (Exception e) {
+                //the sync reports the actual failure, if any
+                LOGGER.log(Level.FINE, "Failed planning the upgrade, total statements unknown", e);
+            }
+            //only this sync reports to the task, not others running on the same upgrader
+            upgrader.syncToVersion(targetVersion, allowDowngrade, emptyDb, new CompositeListener(upgrader.getListeners(), this));
+            currentVersion = upgrader.getCurrentDbVersion();
+            complete(null);
+        } catch (Throwable e) {
+            completeExceptionally(e);
+        }
+    }
+
+    public int getTargetVersion() {
+        return targetVersion;
+    }
+
+    /**
+     * @return the version of the database after the last completed step, -1 if not known yet or an empty database
+     */
+    public int getCurrentVersion() {
+        return currentVersion;
+    }
+
+    /**
+     * @return the number of statements executed so far
+     */
+    public long getCompletedStatements() {
+        return completedStatements.get();
+    }
+
+    /**
+     * @return the number of statements of the sync, -1 if not known yet or the sync streams scripts too large to be
+     * cached
+     */
+    public long getTotalStatements() {
+        return totalStatements;
+    }
+
+    @Override
+    public void versionStarted(int fromVersion, int toVersion) {
+        checkCancelled();
+    }
+
+    @Override
+    public void versionFinished(int fromVersion, int toVersion, long nanos) {
+        currentVersion = toVersion;
+    }
+
+    @Override
+    public void statementStarted(String resource, int ordinal, String sql) {
+        checkCancelled();
+    }
+
+    @Override
+    public void statementFinished(String resource, int ordinal, String sql, long updateCount, long nanos) {
+        completedStatements.incrementAndGet();
+    }
+
+    private void checkCancelled() {
+        if (isCancelled()) throw new CancellationException("Upgrade to version " + targetVersion + " cancelled");
+    }
+
+    @Override
+    public String toString() {
+        return "Upgrade to version " + targetVersion + ": at version " + currentVersion + ", " + completedStatements.get() + "/"
+                + (totalStatements < 0 ? "?" : String.valueOf(totalStatements)) + " statement(s)"
+                + (isCancelled() ? ", cancelled" : isCompletedExceptionally() ? ", failed" : isDone() ? ", done" : "");
+    }
+}
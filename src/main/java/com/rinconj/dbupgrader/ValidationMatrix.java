@@ -0,0 +1,345 @@
+package com.rinconj.dbupgrader;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Validates the upgrade and rollback scripts of a range of versions for several environments at the same time, as
+ * {@link DbUpgrader#validateVersion(int, boolean)} does for a single version. Every version/environment pair is
+ * validated on its own database: starting at the previous version, it's upgraded, rolled back and upgraded again.
+ * <pre>
+ *     ValidationMatrix matrix = new ValidationMatrix(ValidationMatrix.h2InMemory(), "dev", "prod");
+ *     UpgradeReport report = matrix.validate(1, DB_VERSION);
+ * </pre>
+ * The databases are created by a {@link DatabaseFactory}. When it can copy a database, a single database per
+ * environment is upgraded version by version, and every version is validated on a snapshot of it taken at the
+ * previous version, so no version is applied more than twice. Otherwise, the database of every pair is upgraded from
+ * scratch to the previous version. Upgraders are created by {@link #newUpgrader(DataSource, String)}, which can be
+ * overridden to customise them.
+ */
+public class ValidationMatrix {
+    private final static Logger LOGGER = Logger.getLogger(ValidationMatrix.class.getName());
+    private static final AtomicInteger RUNS = new AtomicInteger();
+
+    /**
+     * Creates the isolated databases of the validation.
+     */
+    public interface DatabaseFactory {
+        /**
+         * @param name a name unique in the JVM
+         * @return a new empty database
+         */
+        DataSource create(String name) throws SQLException;
+
+        /**
+         * @return a new database with the content of the given one, or null if copies aren't supported
+         */
+        default DataSource copy(DataSource source, String name) throws SQLException {
+            return null;
+        }
+
+        /**
+         * Called when a database created by this factory isn't needed anymore.
+         */
+        default void drop(DataSource dataSource) throws SQLException {
+        }
+    }
+
+    private final DatabaseFactory factory;
+    private final String[] environments;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    public ValidationMatrix(DatabaseFactory factory, String... environments) {
+        if (factory == null) throw new IllegalArgumentException("null database factory provided");
+        if (environments.length == 0) throw new IllegalArgumentException("no environment specified!");
+        this.factory = factory;
+        this.environments = environments.clone();
+    }
+
+    /**
+     * @return a factory of private in-memory H2 databases, copied with SCRIPT/RUNSCRIPT. The H2 driver must be in the
+     * classpath.
+     */
+    public static DatabaseFactory h2InMemory() {
+        return new H2InMemory();
+    }
+
+    /**
+     * Validates all the versions up to the given one.
+     */
+    public UpgradeReport validate(int toVersion) throws InterruptedException {
+        return validate(1, toVersion);
+    }
+
+    /**
+     * Validates the versions of the given range, for every environment.
+     *
+     * @return the result of every version/environment pair, named e.g. <i>dev v2</i>, by environment and version. A
+     * pair is failed if any of its syncs failed, and skipped (with the cause) if its database couldn't be brought to
+     * the previous version.
+     */
+    public UpgradeReport validate(final int fromVersion, final int toVersion) throws InterruptedException {
+        if (fromVersion < 1 || toVersion < fromVersion)
+            throw new IllegalArgumentException("invalid version range " + fromVersion + "-" + toVersion);
+        long start = System.nanoTime();
+        final String run = "validation" + RUNS.incrementAndGet();
+        //the chains only upgrade and copy, the validations run on the pool
+        ExecutorService chains = Executors.newFixedThreadPool(environments.length);
+        final ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Future<List<Future<UpgradeReport.TargetResult>>>> futures = new ArrayList<Future<List<Future<UpgradeReport.TargetResult>>>>();
+            for (final String environment : environments) {
+                futures.add(chains.submit(new Callable<List<Future<UpgradeReport.TargetResult>>>() {
+                    public List<Future<UpgradeReport.TargetResult>> call() {
+                        return validateEnvironment(pool, run + "_" + environment, environment, fromVersion, toVersion);
+                    }
+                }));
+            }
+            List<UpgradeReport.TargetResult> results = new ArrayList<UpgradeReport.TargetResult>();
+            for (Future<List<Future<UpgradeReport.TargetResult>>> future : futures) {
+                try {
+                    for (Future<UpgradeReport.TargetResult> result : future.get()) results.add(result.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Unexpected validation task failure", e.getCause());
+                }
+            }
+            UpgradeReport report = new UpgradeReport(results, System.nanoTime() - start);
+            LOGGER.info(report.toString());
+            return report;
+        } finally {
+            chains.shutdownNow();
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Upgrades the chain database of the environment version by version, submitting the validation of every version
+     * on a copy of it.
+     */
+    private List<Future<UpgradeReport.TargetResult>> validateEnvironment(ExecutorService pool, String prefix, String environment,
+                                                                        int fromVersion, int toVersion) {
+        List<Future<UpgradeReport.TargetResult>> results = new ArrayList<Future<UpgradeReport.TargetResult>>();
+        DataSource chain = null;
+        //first version not submitted yet
+        int next = fromVersion;
+        try {
+            chain = factory.create(prefix + "_chain");
+            DbUpgrader upgrader = newUpgrader(chain, environment);
+            upgrader.syncToVersion(fromVersion - 1, false, false);
+            while (next <= toVersion) {
+                DataSource snapshot = factory.copy(chain, prefix + "_v" + next);
+                if (snapshot == null) break;
+                results.add(pool.submit(new Validation(environment, next, snapshot, false)));
+                next++;
+                //the snapshot of the next version
+                if (next <= toVersion) upgrader.syncToVersion(next - 1, false, false);
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, pairName(environment, next) + ": failed preparing the database", e);
+            for (; next <= toVersion; next++) results.add(skipped(environment, next, e));
+            return results;
+        } finally {
+            drop(chain);
+        }
+        //no snapshots: every version from scratch
+        for (; next <= toVersion; next++) {
+            try {
+                results.add(pool.submit(new Validation(environment, next, factory.create(prefix + "_v" + next), true)));
+            } catch (SQLException e) {
+                results.add(skipped(environment, next, e));
+            }
+        }
+        return results;
+    }
+
+    private static Future<UpgradeReport.TargetResult> skipped(String environment, int version, Exception cause) {
+        return CompletableFuture.completedFuture(new UpgradeReport.TargetResult(pairName(environment, version), UpgradeReport.Status.SKIPPED, 0, cause));
+    }
+
+    private static String pairName(String environment, int version) {
+        return environment + " v" + version;
+    }
+
+    private void drop(DataSource dataSource) {
+        if (dataSource == null) return;
+        try {
+            factory.drop(dataSource);
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "Failed dropping validation database", e);
+        }
+    }
+
+    /**
+     * Creates the upgrader of a validation database.
+     */
+    protected DbUpgrader newUpgrader(DataSource dataSource, String environment) {
+        return new DbUpgrader(dataSource, environment);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @param parallelism maximum number of versions validated at the same time. Defaults to the number of processors.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("invalid parallelism " + parallelism);
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Upgrade, rollback and upgrade round trip of a version, on a database at the previous version or, if
+     * <i>prepare</i> is set, an empty one.
+     */
+    private class Validation implements Callable<UpgradeReport.TargetResult> {
+        private final String environment;
+        private final int version;
+        private final DataSource dataSource;
+        private final boolean prepare;
+
+        Validation(String environment, int version, DataSource dataSource, boolean prepare) {
+            this.environment = environment;
+            this.version = version;
+            this.dataSource = dataSource;
+            this.prepare = prepare;
+        }
+
+        public UpgradeReport.TargetResult call() {
+            String name = pairName(environment, version);
+            try {
+                DbUpgrader upgrader = newUpgrader(dataSource, environment);
+                try {
+                    if (prepare) upgrader.syncToVersion(version - 1, false, false);
+                } catch (Exception e) {
+                    LOGGER.log(Level.SEVERE, name + ": failed preparing the database", e);
+                    return new UpgradeReport.TargetResult(name, UpgradeReport.Status.SKIPPED, 0, e);
+                }
+                long start = System.nanoTime();
+                try {
+                    upgrader.syncToVersion(version, false, false);
+                    upgrader.syncToVersion(version - 1, true, false);
+                    upgrader.syncToVersion(version, false, false);
+                    return new UpgradeReport.TargetResult(name, UpgradeReport.Status.SUCCESS, System.nanoTime() - start, null);
+                } catch (Exception e) {
+                    LOGGER.log(Level.SEVERE, name + ": validation failed", e);
+                    return new UpgradeReport.TargetResult(name, UpgradeReport.Status.FAILED, System.nanoTime() - start, e);
+                }
+            } finally {
+                drop(dataSource);
+            }
+        }
+    }
+
+    private static class H2InMemory implements DatabaseFactory {
+        public DataSource create(String name) {
+            return new DriverDataSource("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        }
+
+        public DataSource copy(DataSource source, String name) throws SQLException {
+            File file;
+            try {
+                file = File.createTempFile("dbupgrader", ".sql");
+            } catch (IOException e) {
+                throw new SQLException("Failed creating snapshot file", e);
+            }
+            try {
+                String path = file.getAbsolutePath().replace("'", "''");
+                execute(source, "SCRIPT TO '" + path + "'");
+                DataSource copy = create(name);
+                execute(copy, "RUNSCRIPT FROM '" + path + "'");
+                return copy;
+            } finally {
+                file.delete();
+            }
+        }
+
+        public void drop(DataSource dataSource) throws SQLException {
+            execute(dataSource, "SHUTDOWN");
+        }
+
+        private static void execute(DataSource dataSource, String sql) throws SQLException {
+            Connection conn = dataSource.getConnection();
+            try {
+                Statement statement = conn.createStatement();
+                try {
+                    statement.execute(sql);
+                } finally {
+                    statement.close();
+                }
+            } finally {
+                conn.close();
+            }
+        }
+    }
+
+    private static class DriverDataSource implements DataSource {
+        private final String url;
+        private PrintWriter logWriter;
+        private int loginTimeout;
+
+        DriverDataSource(String url) {
+            this.url = url;
+        }
+
+        public Connection getConnection() throws SQLException {
+            return DriverManager.getConnection(url);
+        }
+
+        public Connection getConnection(String username, String password) throws SQLException {
+            return DriverManager.getConnection(url, username, password);
+        }
+
+        public PrintWriter getLogWriter() {
+            return logWriter;
+        }
+
+        public void setLogWriter(PrintWriter out) {
+            this.logWriter = out;
+        }
+
+        public void setLoginTimeout(int seconds) {
+            this.loginTimeout = seconds;
+        }
+
+        public int getLoginTimeout() {
+            return loginTimeout;
+        }
+
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+
+        public <T> T unwrap(Class<T> iface) throws SQLException {
+            if (iface.isInstance(this)) return iface.cast(this);
+            throw new SQLException("Not a wrapper of " + iface);
+        }
+
+        public boolean isWrapperFor(Class<?> iface) {
+            return iface.isInstance(this);
+        }
+
+        @Override
+        public String toString() {
+            return url;
+        }
+    }
+}
@@ -1,20 +1,60 @@
 package com.rinconj.dbupgrader;
 
 import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import javax.sql.DataSource;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
 import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
 
 import static com.rinconj.dbupgrader.JdbcUtils.collectFirst;
 import static com.rinconj.dbupgrader.JdbcUtils.executeSql;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Created by julio on 4/05/15.
  */
 public class DbUpgraderTest {
+    @Rule
+    public final TemporaryFolder scriptDir = new TemporaryFolder();
+
+    @After
+    public void clearScriptDir() {
+        System.clearProperty("dbupgrader.sql.dir");
+    }
 
     DataSource getDataSource(String name){
         JdbcDataSource dataSource = new JdbcDataSource();
@@ -85,4 +125,556 @@ public class DbUpgraderTest {
         upgrader.syncToVersion(1, false, false);
         assertEquals(1, upgrader.getCurrentDbVersion());
     }
+
+    @Test
+    public void shouldBatchDmlStatements() throws Exception {
+        DataSource dataSource = getDataSource("test6");
+        Connection conn = dataSource.getConnection();
+        try {
+            DbUpgrader upgrader = new DbUpgrader(dataSource, "dev");
+            upgrader.setScriptsBasePath("/db-batch");
+            upgrader.setBatchSize(3);
+            upgrader.syncToVersion(1, false, false);
+            assertEquals(4L, (long) collectFirst(conn.createStatement().executeQuery("select count(*) from batch1"), -1L));
+            assertEquals(2L, (long) collectFirst(conn.createStatement().executeQuery("select count(*) from batch1 where col2='updated'"), -1L));
+            assertEquals(7L, (long) collectFirst(conn.createStatement().executeQuery("select count(*) from batch2"), -1L));
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void shouldReportFailedBatchStatement() throws Exception {
+        DataSource dataSource = getDataSource("test7");
+        DbUpgrader upgrader = new DbUpgrader(dataSource, "dev");
+        upgrader.setScriptsBasePath("/db-batch");
+        upgrader.setBatchSize(10);
+        upgrader.syncToVersion(1, false, false);
+        try {
+            upgrader.syncToVersion(2, false, false);
+            fail("duplicate key expected");
+        } catch (Exception e) {
+            assertTrue(e.getMessage().contains("insert into batch1 values(1, 'duplicate')"));
+        }
+        assertEquals(1, upgrader.getCurrentDbVersion());
+    }
+
+    @Test
+    public void shouldLoadBatchDataFile() throws Exception {
+        DataSource dataSource = getDataSource("test8");
+        Connection conn = dataSource.getConnection();
+        try {
+            DbUpgrader upgrader = new DbUpgrader(dataSource, "dev");
+            upgrader.syncToVersion(2, false, true);
+            upgrader.syncToVersion(3, false, false);
+            assertEquals(4L, (long) collectFirst(conn.createStatement().executeQuery("select count(*) from test_batch"), -1L));
+            ResultSet rs = conn.createStatement().executeQuery("select col2, col3, col4 from test_batch where col1=2");
+            assertTrue(rs.next());
+            assertEquals("second, with comma", rs.getString(1));
+            assertEquals(java.sql.Date.valueOf("2015-03-15"), rs.getDate(2));
+            assertEquals(new BigDecimal("1234.56"), rs.getBigDecimal(3));
+            rs = conn.createStatement().executeQuery("select col2, col3, col4 from test_batch where col1=3");
+            assertTrue(rs.next());
+            assertNull(rs.getDate(2));
+            assertNull(rs.getBigDecimal(3));
+            assertEquals("fourth \"quoted\"", collectFirst(conn.createStatement().executeQuery("select col2 from test_batch where col1=4"), ""));
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void shouldLoadBatchDataFileInAnyLocale() throws Exception {
+        Locale locale = Locale.getDefault();
+        //comma decimal separator
+        Locale.setDefault(Locale.GERMANY);
+        try {
+            DataSource dataSource = getDataSource("test8de");
+            DbUpgrader upgrader = new DbUpgrader(dataSource, "dev");
+            upgrader.syncToVersion(2, false, true);
+            upgrader.syncToVersion(3, false, false);
+            Connection conn = dataSource.getConnection();
+            try {
+                assertEquals(new BigDecimal("1234.56"), collectFirst(conn.createStatement().executeQuery("select col4 from test_batch where col1=2"), BigDecimal.ZERO));
+            } finally {
+                conn.close();
+            }
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    @Test
+    public void shouldSkipMetadataWhenAlreadyAtVersion() throws Exception {
+        final DataSource dataSource = getDataSource("test9");
+        final AtomicInteger metadataCalls = new AtomicInteger();
+        DataSource countingDataSource = (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{DataSource.class}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                Object result = method.invoke(dataSource, args);
+                if (!method.getName().equals("getConnection")) return result;
+                final Connection conn = (Connection) result;
+                return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{Connection.class}, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("getMetaData")) metadataCalls.incrementAndGet();
+                        try {
+                            return method.invoke(conn, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+            }
+        });
+        DbUpgrader upgrader = new DbUpgrader(countingDataSource, "dev");
+        upgrader.syncToVersion(2, false, true);
+        assertTrue(metadataCalls.get() > 0);
+        metadataCalls.set(0);
+        upgrader.syncToVersion(2, false, true);
+        upgrader.syncToVersion(1, false, true);
+        assertEquals(0, metadataCalls.get());
+        assertTrue(upgrader.getLastVersionCheckNanos() > 0);
+        assertEquals(2, upgrader.getCurrentDbVersion());
+        assertEquals(0, metadataCalls.get());
+    }
+
+    @Test
+    public void shouldReportTimingsToListeners() throws Exception {
+        DataSource dataSource = getDataSource("test10");
+        DbUpgrader upgrader = new DbUpgrader(dataSource, "dev");
+        upgrader.setScriptsBasePath("/db-batch");
+        upgrader.setBatchSize(3);
+        TimingCollector timings = new TimingCollector();
+        final List<String> timers = new ArrayList<String>();
+        upgrader.addListener(timings);
+        upgrader.addListener(new MetricsListener(new MetricsListener.Recorder() {
+            public void recordTimer(String name, Map<String, String> tags, long nanos) {
+                timers.add(name + tags);
+            }
+        }));
+        upgrader.syncToVersion(1, false, false);
+
+        List<TimingCollector.VersionTiming> versions = timings.getVersions();
+        assertEquals(1, versions.size());
+        TimingCollector.VersionTiming version = versions.get(0);
+        assertEquals(0, version.getFromVersion());
+        assertEquals(1, version.getToVersion());
+        assertTrue(version.getNanos() > 0);
+        assertTrue(version.getStatements() > 0);
+        assertEquals(11, version.getRows());
+        long histogramTotal = 0;
+        for (long count : version.getHistogram()) histogramTotal += count;
+        assertEquals(version.getStatements(), histogramTotal);
+        assertTrue(timings.toJson().startsWith("{\"versions\":[{\"from\":0,\"to\":1,"));
+
+        assertTrue(timers.contains("dbupgrader.version{from=0, to=1}"));
+        assertTrue(timers.contains("dbupgrader.script{resource=v1/upgrade.sql}"));
+        assertTrue(timers.contains("dbupgrader.statement{resource=v1/upgrade.sql, type=DDL, outcome=success}"));
+    }
+
+    @Test
+    public void shouldRollbackFailedVersionInTransactionalMode() throws Exception {
+        DataSource dataSource = getDataSource("test11");
+        Connection conn = dataSource.getConnection();
+        try {
+            DbUpgrader upgrader = new DbUpgrader(dataSource, "dev");
+            upgrader.setScriptsBasePath("/db-batch");
+            upgrader.setTransactional(true);
+            upgrader.syncToVersion(1, false, false);
+            assertEquals(4L, (long) collectFirst(conn.createStatement().executeQuery("select count(*) from batch1"), -1L));
+            try {
+                upgrader.syncToVersion(2, false, false);
+                fail("duplicate key expected");
+            } catch (Exception e) {
+                //the insert before the duplicate is rolled back with the version
+            }
+            assertEquals(4L, (long) collectFirst(conn.createStatement().executeQuery("select count(*) from batch1"), -1L));
+            assertEquals(1, upgrader.getCurrentDbVersion());
+            assertTrue(conn.getAutoCommit());
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void shouldPipelineStreamedScripts() throws Exception {
+        DataSource dataSource = getDataSource("test12");
+        Connection conn = dataSource.getConnection();
+        try {
+            DbUpgrader upgrader = new DbUpgrader(dataSource, "dev");
+            upgrader.setScriptsBasePath("/db-batch");
+            upgrader.setScriptRepository(new ScriptRepository(0));
+            upgrader.setPipelineDepth(2);
+            upgrader.syncToVersion(1, false, false);
+            assertEquals(2L, (long) collectFirst(conn.createStatement().executeQuery("select count(*) from batch1 where col2='updated'"), -1L));
+            assertEquals(7L, (long) collectFirst(conn.createStatement().executeQuery("select count(*) from batch2"), -1L));
+            try {
+                upgrader.syncToVersion(2, false, false);
+                fail("duplicate key expected");
+            } catch (Exception e) {
+                assertTrue(e.getMessage().contains("insert into batch1 values(1, 'duplicate')"));
+            }
+            assertEquals(1, upgrader.getCurrentDbVersion());
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void shouldExecuteParallelRegions() throws Exception {
+        DataSource dataSource = getDataSource("test13");
+        Connection conn = dataSource.getConnection();
+        try {
+            DbUpgrader upgrader = new DbUpgrader(dataSource, "dev");
+            upgrader.setScriptsBasePath("/db-parallel");
+            //the three inserts must be running at the same time to pass the barrier
+            final CyclicBarrier barrier = new CyclicBarrier(3);
+            final AtomicInteger concurrent = new AtomicInteger();
+            upgrader.addListener(new UpgradeListener() {
+                public void statementStarted(String resource, int ordinal, String sql) {
+                    if (!sql.startsWith("insert")) return;
+                    try {
+                        barrier.await(10, TimeUnit.SECONDS);
+                        concurrent.incrementAndGet();
+                    } catch (Exception e) {
+                        //not concurrent
+                    }
+                }
+            });
+            upgrader.syncToVersion(1, false, false);
+            assertEquals(600L, (long) collectFirst(conn.createStatement().executeQuery("select count(*) from par_all"), -1L));
+            assertEquals(3, concurrent.get());
+            try {
+                upgrader.syncToVersion(2, false, false);
+                fail("missing table expected");
+            } catch (Exception e) {
+                assertTrue(e.getMessage().toUpperCase().contains("MISSING_TABLE"));
+            }
+            assertEquals(1, upgrader.getCurrentDbVersion());
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void shouldResumeInterruptedVersion() throws Exception {
+        String completed = "create table res1(col1 int primary key);\ninsert into res1 values(1);\ninsert into res1 values(2);\n";
+        File script = writeScript("v1/upgrade.sql", completed + "insert into res_missing values(3);\n");
+        DataSource dataSource = getDataSource("test14");
+        Connection conn = dataSource.getConnection();
+        try {
+            DbUpgrader upgrader = new DbUpgrader(dataSource, "dev");
+            upgrader.setResumable(true);
+            upgrader.setBatchSize(2);
+            try {
+                upgrader.syncToVersion(1, false, false);
+                fail("missing table expected");
+            } catch (Exception e) {
+                assertEquals(0, upgrader.getCurrentDbVersion());
+            }
+            assertEquals(3, (int) collectFirst(conn.createStatement().executeQuery("select ordinal from DB_VERSION_PROGRESS"), -1));
+            //fixed script: the completed statements would fail if executed again
+            writeFile(script, completed + "insert into res1 values(3);\n");
+            upgrader.syncToVersion(1, false, false);
+            assertEquals(1, upgrader.getCurrentDbVersion());
+            assertEquals(3L, (long) collectFirst(conn.createStatement().executeQuery("select count(*) from res1"), -1L));
+            assertEquals(0L, (long) collectFirst(conn.createStatement().executeQuery("select count(*) from DB_VERSION_PROGRESS"), -1L));
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void shouldResumeChunkedUpdate() throws Exception {
+        String setup = "create table chk1(id int primary key, val int);\ninsert into chk1 select x, 0 from system_range(1, 25);\n" +
+                "/* @chunked {table:'chk1', key:'id', size:10, pauseMillis:1} */\n";
+        //division by zero in the second chunk while the divisor is 17
+        String chunked = "update chk1 set val = %d / (id - (select divisor from chk_cfg)) where id between :$chunk_start and :$chunk_end;\n";
+        File script = writeScript("v1/upgrade.sql", setup + String.format(chunked, 100));
+        DataSource dataSource = getDataSource("test22");
+        Connection conn = dataSource.getConnection();
+        executeSql(conn, "create table chk_cfg(divisor int)");
+        executeSql(conn, "insert into chk_cfg values(17)");
+        try {
+            DbUpgrader upgrader = new DbUpgrader(dataSource, "dev");
+            upgrader.setResumable(true);
+            try {
+                upgrader.syncToVersion(1, false, false);
+                fail("division by zero expected");
+            } catch (Exception e) {
+                assertEquals(0, upgrader.getCurrentDbVersion());
+            }
+            assertEquals(10L, (long) collectFirst(conn.createStatement().executeQuery("select chunk_key from DB_VERSION_PROGRESS"), -1L));
+            assertEquals(-6, (int) collectFirst(conn.createStatement().executeQuery("select val from chk1 where id = 1"), 0));
+            //changed statement: restarted from the first chunk
+            writeFile(script, setup + String.format(chunked, 200));
+            try {
+                upgrader.syncToVersion(1, false, false);
+                fail("division by zero expected");
+            } catch (Exception e) {
+                assertEquals(0, upgrader.getCurrentDbVersion());
+            }
+            assertEquals(-12, (int) collectFirst(conn.createStatement().executeQuery("select val from chk1 where id = 1"), 0));
+            //same statement: resumed after the first chunk
+            executeSql(conn, "update chk_cfg set divisor = 100");
+            upgrader.syncToVersion(1, false, false);
+            assertEquals(1, upgrader.getCurrentDbVersion());
+            assertEquals(-12, (int) collectFirst(conn.createStatement().executeQuery("select val from chk1 where id = 1"), 0));
+            assertEquals(15L, (long) collectFirst(conn.createStatement().executeQuery("select count(*) from chk1 where val = -2"), -1L));
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void shouldCancelStatementsOverTimeouts() throws Exception {
+        //runs for hours
+        writeScript("v1/upgrade.sql", "create table if not exists tmo1(id int);\nselect count(*) from system_range(1, 100000) a, system_range(1, 100000) b;\n");
+        DataSource dataSource = getDataSource("test23");
+        final List<String> warnings = new ArrayList<String>();
+        Handler handler = new Handler() {
+            public void publish(LogRecord record) {
+                synchronized (warnings) {
+                    warnings.add(record.getMessage());
+                }
+            }
+
+            public void flush() {
+            }
+
+            public void close() {
+            }
+        };
+        Logger watchdogLogger = Logger.getLogger(StatementWatchdog.class.getName());
+        watchdogLogger.addHandler(handler);
+        try {
+            DbUpgrader upgrader = new DbUpgrader(dataSource, "dev");
+            upgrader.setStatementTimeoutMillis(200);
+            upgrader.setSlowStatementMillis(50);
+            try {
+                upgrader.syncToVersion(1, false, false);
+                fail("timeout expected");
+            } catch (Exception e) {
+                assertTrue(rootMessage(e, SQLTimeoutException.class).contains("Statement #2 of v1/upgrade.sql exceeded the statement timeout of 200ms"));
+            }
+            synchronized (warnings) {
+                assertTrue(warnings.toString(), warnings.toString().contains("slow statement(s) running:"));
+                assertTrue(warnings.toString(), warnings.toString().contains("#2 of v1/upgrade.sql for "));
+            }
+            upgrader.setStatementTimeoutMillis(0);
+            upgrader.setVersionTimeoutMillis(300);
+            try {
+                upgrader.syncToVersion(1, false, false);
+                fail("timeout expected");
+            } catch (Exception e) {
+                assertTrue(rootMessage(e, SQLTimeoutException.class).contains("exceeded the time budget of 300ms of the upgrade from 0 to 1"));
+            }
+            assertEquals(0, upgrader.getCurrentDbVersion());
+        } finally {
+            watchdogLogger.removeHandler(handler);
+        }
+    }
+
+    private static String rootMessage(Throwable e, Class<? extends Throwable> type) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause())
+            if (type.isInstance(cause)) return cause.getMessage();
+        throw new AssertionError("No " + type.getSimpleName() + " in " + e);
+    }
+
+    @Test
+    public void shouldDetectChangedScripts() throws Exception {
+        String v1 = "create table drift1(col1 int);\ninsert into drift1 values(1);\ninsert into drift1 values(2);\n";
+        writeScript("v1/upgrade.sql", v1);
+        File v2 = writeScript("v2/upgrade.sql", "insert into drift1 values(3);\n");
+        writeScript("v3/upgrade.sql", "insert into drift1 values(4);\n");
+        DataSource dataSource = getDataSource("test18");
+        DbUpgrader upgrader = new DbUpgrader(dataSource, "dev");
+        //streamed scripts are hashed while parsed
+        upgrader.setScriptRepository(new ScriptRepository(0));
+        upgrader.setChecksumPolicy(ChecksumPolicy.WARN);
+        upgrader.syncToVersion(1, false, false);
+        List<HistoryEntry> history = upgrader.getHistory();
+        assertEquals(1, history.size());
+        assertEquals("v1/upgrade.sql", history.get(0).getScript());
+        assertEquals(Script.hash(v1.getBytes("UTF-8")), history.get(0).getHash());
+        assertEquals(3, history.get(0).getStatements());
+        assertEquals(2, history.get(0).getRows());
+        assertTrue(upgrader.verifyChecksums().isEmpty());
+
+        writeScript("v1/upgrade.sql", v1 + "insert into drift1 values(5);\n");
+        assertEquals("v1/upgrade.sql", upgrader.verifyChecksums().get(0).getScript());
+        upgrader.syncToVersion(2, false, false);
+        assertEquals(2, upgrader.getCurrentDbVersion());
+
+        upgrader.setChecksumPolicy(ChecksumPolicy.FAIL);
+        try {
+            upgrader.syncToVersion(3, false, false);
+            fail("changed script expected");
+        } catch (Exception e) {
+            assertEquals(2, upgrader.getCurrentDbVersion());
+        }
+        writeScript("v1/upgrade.sql", v1);
+        upgrader.syncToVersion(3, false, false);
+        assertEquals(3, upgrader.getHistory().size());
+
+        //same size and modification time: not read again
+        long modified = v2.lastModified();
+        writeFile(v2, "insert into drift1 values(6);\n");
+        assertTrue(v2.setLastModified(modified));
+        assertTrue(upgrader.verifyChecksums().isEmpty());
+        assertTrue(v2.setLastModified(modified + 2000));
+        assertEquals("v2/upgrade.sql", upgrader.verifyChecksums().get(0).getScript());
+    }
+
+    @Test
+    public void shouldTakeScriptsFromBundle() throws Exception {
+        DbUpgrader upgrader = new DbUpgrader(getDataSource("test19"), "dev");
+        //nothing to find in the classpath
+        upgrader.setScriptsBasePath("/missing");
+        upgrader.setBundle(ScriptBundle.compile(new File(getClass().getResource("/db").toURI()), ';', SqlDialect.GENERIC,
+                Charset.defaultCharset()));
+        upgrader.syncToVersion(2, true, true);
+        assertEquals(2, upgrader.getCurrentDbVersion());
+        upgrader.syncToVersion(1, true, true);
+        assertEquals(1, upgrader.getCurrentDbVersion());
+    }
+
+    @Test
+    public void shouldSyncAsynchronously() throws Exception {
+        writeScript("v1/upgrade.sql", "create table async1(col1 int);\n");
+        writeScript("v2/upgrade.sql", "insert into async1 values(1);\ninsert into async1 values(2);\n");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            DbUpgrader upgrader = new DbUpgrader(getDataSource("test20"), "dev");
+            UpgradeTask task = upgrader.syncToVersionAsync(2, false, false);
+            task.get(10, TimeUnit.SECONDS);
+            assertEquals(2, task.getCurrentVersion());
+            assertEquals(3, task.getTotalStatements());
+            assertEquals(3, task.getCompletedStatements());
+
+            //cancelled between the statements of version 2
+            DbUpgrader cancelled = new DbUpgrader(getDataSource("test21"), "dev");
+            cancelled.setTransactional(true);
+            final CountDownLatch started = new CountDownLatch(1);
+            final CountDownLatch resume = new CountDownLatch(1);
+            cancelled.addListener(new UpgradeListener() {
+                public void statementFinished(String resource, int ordinal, String sql, long updateCount, long nanos) {
+                    if (!resource.equals("v2/upgrade.sql")) return;
+                    started.countDown();
+                    try {
+                        resume.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            task = cancelled.syncToVersionAsync(2, false, false, executor);
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            assertTrue(task.cancel(true));
+            resume.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+            assertEquals(1, cancelled.getCurrentDbVersion());
+            assertEquals(1, task.getCurrentVersion());
+            Connection conn = cancelled.getDataSource().getConnection();
+            assertEquals(0L, (long) collectFirst(conn.createStatement().executeQuery("select count(*) from async1"), -1L));
+            conn.close();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Writes a script into the temporary scripts directory, which becomes the scripts directory of the upgraders
+     * created afterwards in the test.
+     */
+    private File writeScript(String path, String content) throws IOException {
+        File file = new File(scriptDir.getRoot(), path);
+        assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+        writeFile(file, content);
+        System.setProperty("dbupgrader.sql.dir", scriptDir.getRoot().getPath());
+        return file;
+    }
+
+    private static void writeFile(File file, String content) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void shouldWaitForUpgradeByAnotherNode() throws Exception {
+        DataSource dataSource = getDataSource("test15");
+        UpgradeLock leaderLock = new UpgradeLock(dataSource, "DB_VERSION_LOCK", "default", 60000);
+        assertTrue(leaderLock.tryAcquire());
+        try {
+            final DbUpgrader upgrader = new DbUpgrader(dataSource, "dev");
+            upgrader.setLocking(true);
+            final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+            Thread waiting = new Thread() {
+                public void run() {
+                    try {
+                        upgrader.syncToVersion(2, false, true);
+                    } catch (Exception e) {
+                        failure.set(e);
+                    }
+                }
+            };
+            waiting.start();
+            Thread.sleep(300);
+            assertTrue(waiting.isAlive());
+            assertEquals(0, upgrader.getCurrentDbVersion());
+            //the leader upgrades the db while holding the lock
+            new DbUpgrader(dataSource, "dev").syncToVersion(2, false, true);
+            waiting.join(20000);
+            assertFalse(waiting.isAlive());
+            assertNull(failure.get());
+            assertEquals(2, upgrader.getCurrentDbVersion());
+        } finally {
+            leaderLock.release();
+        }
+    }
+
+    @Test
+    public void shouldPlanUpgradeWithoutExecuting() throws Exception {
+        DataSource dataSource = getDataSource("test16");
+        DbUpgrader upgrader = new DbUpgrader(dataSource, "dev");
+        UpgradePlan plan = upgrader.plan(3, false, true);
+        assertEquals(-1, plan.getCurrentVersion());
+        assertEquals(1, plan.getSteps().size());
+        UpgradePlan.ScriptPlan current = plan.getSteps().get(0).getScripts().get(0);
+        assertEquals(3, current.getCount(StatementType.DDL));
+        assertEquals(0, upgrader.getCurrentDbVersion());
+
+        upgrader.syncToVersion(1, false, false);
+        plan = upgrader.plan(3, false, false);
+        assertEquals(1, plan.getCurrentVersion());
+        assertEquals(2, plan.getSteps().size());
+        UpgradePlan.Step v2 = plan.getSteps().get(0);
+        assertEquals("v2/upgrade.sql", v2.getScripts().get(0).getResource());
+        assertEquals(1, v2.getScripts().get(0).getCount(StatementType.DDL));
+        assertEquals(1, v2.getScripts().get(1).getCount(StatementType.DML));
+        UpgradePlan.ScriptPlan v3 = plan.getSteps().get(1).getScripts().get(0);
+        assertEquals(2, v3.getStatements());
+        assertEquals(1, v3.getBatchLoads());
+        assertFalse(plan.getSteps().get(1).getScripts().get(1).isFound());
+        assertEquals(1, upgrader.getCurrentDbVersion());
+        assertTrue(upgrader.plan(0, false, false).isEmpty());
+
+        UpgradePlan rollback = upgrader.plan(2, 0);
+        assertEquals(2, rollback.getSteps().size());
+        assertTrue(rollback.getSteps().get(0).isRollback());
+        assertEquals("v2/dev/rollback.sql", rollback.getSteps().get(0).getScripts().get(0).getResource());
+
+        //timings of a previous run on another database
+        TimingCollector history = new TimingCollector();
+        DbUpgrader staging = new DbUpgrader(getDataSource("test17"), "dev");
+        staging.addListener(history);
+        staging.syncToVersion(2, true, true);
+        staging.syncToVersion(1, true, true);
+        assertTrue(upgrader.plan(2, 1).estimate(history) > 0);
+        assertEquals(-1, upgrader.plan(1, 2).getSteps().get(0).getEstimatedNanos());
+    }
 }
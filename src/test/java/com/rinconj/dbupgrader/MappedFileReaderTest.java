@@ -0,0 +1,102 @@
+package com.rinconj.dbupgrader;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class MappedFileReaderTest {
+
+    @Test
+    public void shouldDecodeCharactersSplitAcrossWindows() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) sb.append("insert into t values('a\u00f1o ").append(i).append(" \u20ac\ud834\udd1e');\n");
+        String content = sb.toString();
+        for (Charset charset : new Charset[]{UTF_8, Charset.forName("UTF-16LE")}) {
+            File file = write(content.getBytes(charset));
+            try {
+                for (int windowSize : new int[]{16, 17, 1000, MappedFileReader.DEFAULT_WINDOW_SIZE}) {
+                    assertEquals(content, readAll(new MappedFileReader(file, charset, windowSize, null), 7));
+                    assertEquals(content, readAll(new MappedFileReader(file, charset, windowSize, null), 8192));
+                }
+            } finally {
+                file.delete();
+            }
+        }
+    }
+
+    @Test
+    public void shouldDigestDecodedBytes() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) sb.append("insert into t values('\u20ac ").append(i).append("');\n");
+        byte[] content = sb.toString().getBytes(UTF_8);
+        File file = write(content);
+        try {
+            for (int windowSize : new int[]{16, 17, 1000}) {
+                MessageDigest digest = Script.newDigest();
+                readAll(new MappedFileReader(file, UTF_8, windowSize, digest), 7);
+                assertEquals(Script.hash(content), Script.toHex(digest.digest()));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void shouldReadEmptyFile() throws Exception {
+        File file = write(new byte[0]);
+        try {
+            Reader reader = new MappedFileReader(file, UTF_8);
+            assertEquals(-1, reader.read(new char[10], 0, 10));
+            assertEquals(-1, reader.read(new char[10], 0, 10));
+            reader.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void shouldFeedStatementIterator() throws Exception {
+        File file = write("create table t1(c1 varchar(10));\ninsert into t1 values('\u00fc;');\n".getBytes("ISO-8859-1"));
+        try {
+            StatementIterator iterator = new StatementIterator(new MappedFileReader(file, Charset.forName("ISO-8859-1"), 20, null));
+            assertEquals("create table t1(c1 varchar(10))", iterator.next());
+            assertEquals("insert into t1 values('\u00fc;')", iterator.next());
+            assertFalse(iterator.hasNext());
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static String readAll(Reader reader, int bufferSize) throws IOException {
+        try {
+            StringBuilder sb = new StringBuilder();
+            char[] buffer = new char[bufferSize];
+            for (int n = reader.read(buffer, 0, bufferSize); n != -1; n = reader.read(buffer, 0, bufferSize)) {
+                assertTrue(n > 0);
+                sb.append(buffer, 0, n);
+            }
+            return sb.toString();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static File write(byte[] content) throws IOException {
+        File file = File.createTempFile("dbupgrader", ".sql");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,115 @@
+package com.rinconj.dbupgrader;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.rinconj.dbupgrader.JdbcUtils.executeSql;
+import static org.junit.Assert.*;
+
+public class MultiDbUpgraderTest {
+
+    DataSource getDataSource(String name) {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        dataSource.setUser("admin");
+        dataSource.setPassword("");
+        return dataSource;
+    }
+
+    @Test
+    public void shouldUpgradeAllTargets() throws Exception {
+        MultiDbUpgrader upgrader = new MultiDbUpgrader("dev");
+        upgrader.setParallelism(4);
+        DataSource[] dataSources = new DataSource[10];
+        for (int i = 0; i < dataSources.length; i++) {
+            dataSources[i] = getDataSource("multi" + i);
+            upgrader.addTarget(dataSources[i], "tenant" + i);
+        }
+        UpgradeReport report = upgrader.syncToVersion(2, false, true);
+        assertTrue(report.toString(), report.isSuccess());
+        assertEquals(10, report.getResults().size());
+        for (int i = 0; i < dataSources.length; i++) {
+            DbUpgrader tenant = new DbUpgrader(dataSources[i], "dev");
+            tenant.setSchemaId("tenant" + i);
+            assertEquals(2, tenant.getCurrentDbVersion());
+        }
+    }
+
+    @Test
+    public void shouldContinueOnErrorWhenNotFailFast() throws Exception {
+        DataSource broken = getDataSource("multiBroken");
+        executeSql(broken.getConnection(), "create table tab1(col1 int)");
+        MultiDbUpgrader upgrader = new MultiDbUpgrader("dev");
+        upgrader.setFailFast(false);
+        upgrader.setParallelism(1);
+        upgrader.addTarget(broken, "broken");
+        upgrader.addTarget(getDataSource("multiOk1"), "ok1");
+        upgrader.addTarget(getDataSource("multiOk2"), "ok2");
+        UpgradeReport report = upgrader.syncToVersion(2, false, true);
+        assertFalse(report.isSuccess());
+        assertEquals("broken", report.getResults(UpgradeReport.Status.FAILED).get(0).getName());
+        assertNotNull(report.getResults().get(0).getError());
+        assertEquals(2, report.getResults(UpgradeReport.Status.SUCCESS).size());
+    }
+
+    @Test
+    public void shouldSkipRemainingTargetsWhenFailFast() throws Exception {
+        DataSource broken = getDataSource("multiBroken2");
+        executeSql(broken.getConnection(), "create table tab1(col1 int)");
+        MultiDbUpgrader upgrader = new MultiDbUpgrader("dev");
+        upgrader.setParallelism(1);
+        upgrader.setVirtualThreads(false);
+        upgrader.addTarget(broken, "broken");
+        upgrader.addTarget(getDataSource("multiSkipped"), "skipped");
+        UpgradeReport report = upgrader.syncToVersion(2, false, true);
+        assertEquals(UpgradeReport.Status.FAILED, report.getResults().get(0).getStatus());
+        assertEquals(UpgradeReport.Status.SKIPPED, report.getResults().get(1).getStatus());
+    }
+
+    @Test
+    public void shouldNotHoldThreadsWaitingForBusyDataSource() throws Exception {
+        final CountDownLatch otherDone = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        MultiDbUpgrader upgrader = new MultiDbUpgrader("dev");
+        upgrader.setParallelism(2);
+        upgrader.setMaxConcurrentPerDataSource(1);
+        upgrader.setVirtualThreads(false);
+        DataSource busy = getDataSource("multiBusy");
+        for (int i = 0; i < 3; i++) {
+            DbUpgrader target = new DbUpgrader(busy, "dev") {
+                @Override
+                public void syncToVersion(int version, boolean allowDowngrade, boolean emptyDb) throws Exception {
+                    maxRunning.set(Math.max(maxRunning.get(), running.incrementAndGet()));
+                    try {
+                        //the target of the other data source runs meanwhile. The busy targets share the same
+                        //tables, so they aren't really upgraded
+                        if (!otherDone.await(10, TimeUnit.SECONDS)) throw new IllegalStateException("other data source starved");
+                    } finally {
+                        running.decrementAndGet();
+                    }
+                }
+            };
+            target.setSchemaId("busy" + i);
+            upgrader.addTarget("busy" + i, target);
+        }
+        DbUpgrader other = new DbUpgrader(getDataSource("multiOther"), "dev") {
+            @Override
+            public void syncToVersion(int version, boolean allowDowngrade, boolean emptyDb) throws Exception {
+                super.syncToVersion(version, allowDowngrade, emptyDb);
+                otherDone.countDown();
+            }
+        };
+        upgrader.addTarget("other", other);
+        UpgradeReport report = upgrader.syncToVersion(2, false, true);
+        assertTrue(report.toString(), report.isSuccess());
+        assertEquals("busy0", report.getResults().get(0).getName());
+        assertEquals("other", report.getResults().get(3).getName());
+        assertEquals(1, maxRunning.get());
+    }
+}
@@ -0,0 +1,63 @@
+package com.rinconj.dbupgrader;
+
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.rinconj.dbupgrader.JdbcUtils.executeSql;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SchemaEquivalenceCheckTest {
+
+    SchemaEquivalenceCheck newCheck(String environment) {
+        return new SchemaEquivalenceCheck(ValidationMatrix.h2InMemory(), environment) {
+            @Override
+            protected DbUpgrader newUpgrader(DataSource dataSource, String environment) {
+                DbUpgrader upgrader = super.newUpgrader(dataSource, environment);
+                upgrader.setScriptsBasePath("/db-matrix");
+                return upgrader;
+            }
+        };
+    }
+
+    @Test
+    public void shouldFindEquivalentSchemas() throws Exception {
+        assertEquals(Collections.<String>emptyList(), newCheck("dev").compare(3));
+    }
+
+    @Test
+    public void shouldReportDifferences() throws Exception {
+        //only the upgrader tables themselves are ignored
+        assertEquals(Arrays.asList("column DB_VERSION_AUDIT.ID missing in upgrades",
+                "index MAT1[NAME]: non unique, unique in current.sql, unique in upgrades",
+                "table DB_VERSION_AUDIT missing in upgrades"), newCheck("prod").compare(3));
+        //version 2 has no MAT3 table yet: table, columns, foreign key and its index
+        List<String> differences = newCheck("dev").compare(2);
+        assertEquals(differences.toString(), 5, differences.size());
+        assertTrue(differences.contains("table MAT3 missing in upgrades"));
+    }
+
+    @Test
+    public void shouldIgnoreGeneratedSequencesAndWildcards() throws Exception {
+        ValidationMatrix.DatabaseFactory factory = ValidationMatrix.h2InMemory();
+        SchemaSnapshot[] snapshots = new SchemaSnapshot[2];
+        for (int i = 0; i < snapshots.length; i++) {
+            Connection conn = factory.create("snapshot" + i).getConnection();
+            try {
+                executeSql(conn, "create table seq_1(id bigint auto_increment primary key)");
+                //matches SEQ_1 as a pattern
+                if (i == 1) executeSql(conn, "create table seqx1(code varchar(5))");
+                snapshots[i] = SchemaSnapshot.read(conn, Collections.<String>emptyList());
+            } finally {
+                conn.close();
+            }
+        }
+        assertEquals(Arrays.asList("column SEQX1.CODE missing in first", "table SEQX1 missing in first"),
+                snapshots[0].compare(snapshots[1], "first", "second"));
+    }
+}
@@ -0,0 +1,44 @@
+package com.rinconj.dbupgrader;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class ScriptBundleTest {
+
+    @Test
+    public void shouldBundleScriptsDirectory() throws Exception {
+        ScriptBundle bundle = ScriptBundle.compile(new File(getClass().getResource("/db").toURI()), ';', SqlDialect.GENERIC, UTF_8);
+        assertEquals(10, bundle.size());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bundle.write(out);
+        ScriptBundle read = ScriptBundle.read(new ByteArrayInputStream(out.toByteArray()));
+        assertTrue(read.matches(';', SqlDialect.GENERIC));
+        assertFalse(read.matches(';', SqlDialect.ORACLE));
+
+        ScriptRepository repository = new ScriptRepository(1024 * 1024);
+        for (String resource : new String[]{"latest/current.sql", "v2/dev/upgrade.sql", "v3/upgrade.sql"}) {
+            Script expected = repository.getResource("/db/" + resource, ';', SqlDialect.GENERIC, UTF_8);
+            Script script = read.get(resource);
+            assertEquals(expected.getStatements(), script.getStatements());
+            assertEquals(expected.getHash(), script.getHash());
+            assertEquals(resource, script.getResource());
+        }
+        assertSame(Script.MISSING, read.get("v3/dev/upgrade.sql"));
+    }
+
+    @Test
+    public void shouldRejectOtherContent() throws Exception {
+        try {
+            ScriptBundle.read(new ByteArrayInputStream("select 1;".getBytes(UTF_8)));
+            fail("invalid bundle expected");
+        } catch (IOException e) {
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.rinconj.dbupgrader;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class ScriptRepositoryTest {
+
+    private File writeFile(File file, String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void shouldCacheClasspathScripts() throws Exception {
+        ScriptRepository repository = new ScriptRepository(1024 * 1024);
+        Script script = repository.getResource("/db/latest/current.sql", ';', SqlDialect.GENERIC, UTF_8);
+        assertEquals(3, script.size());
+        assertSame(script, repository.getResource("/db/latest/current.sql", ';', SqlDialect.GENERIC, UTF_8));
+        assertNotSame(script, repository.getResource("/db/latest/current.sql", '/', SqlDialect.GENERIC, UTF_8));
+        assertSame(Script.MISSING, repository.getResource("/db/v99/upgrade.sql", ';', SqlDialect.GENERIC, UTF_8));
+        //too large to be cached: streamed
+        assertNull(new ScriptRepository(16).getResource("/db/latest/current.sql", ';', SqlDialect.GENERIC, UTF_8));
+    }
+
+    @Test
+    public void shouldInvalidateChangedFiles() throws Exception {
+        ScriptRepository repository = new ScriptRepository(1024 * 1024);
+        File file = writeFile(File.createTempFile("upgrade", ".sql"), "select 1;\nselect 2;\n");
+        try {
+            Script script = repository.getFile(file, ';', SqlDialect.GENERIC, UTF_8);
+            assertEquals(2, script.size());
+            assertSame(script, repository.getFile(file, ';', SqlDialect.GENERIC, UTF_8));
+            writeFile(file, "select 1;\nselect 2;\nselect 3;\n");
+            Script changed = repository.getFile(file, ';', SqlDialect.GENERIC, UTF_8);
+            assertEquals(3, changed.size());
+            assertFalse(script.getHash().equals(changed.getHash()));
+        } finally {
+            file.delete();
+        }
+        assertSame(Script.MISSING, repository.getFile(file, ';', SqlDialect.GENERIC, UTF_8));
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedScripts() throws Exception {
+        ScriptRepository repository = new ScriptRepository(800);
+        File[] files = new File[4];
+        StringBuilder statement = new StringBuilder("select 1");
+        while (statement.length() < 150) statement.append(" + 1");
+        try {
+            for (int i = 0; i < files.length; i++)
+                files[i] = writeFile(File.createTempFile("script" + i, ".sql"), statement + ";\n");
+            Script first = repository.getFile(files[0], ';', SqlDialect.GENERIC, UTF_8);
+            Script second = repository.getFile(files[1], ';', SqlDialect.GENERIC, UTF_8);
+            repository.getFile(files[2], ';', SqlDialect.GENERIC, UTF_8);
+            assertSame(first, repository.getFile(files[0], ';', SqlDialect.GENERIC, UTF_8));
+            repository.getFile(files[3], ';', SqlDialect.GENERIC, UTF_8); //exceeds the cache size, evicts the second script
+            assertEquals(3, repository.size());
+            assertSame(first, repository.getFile(files[0], ';', SqlDialect.GENERIC, UTF_8));
+            assertNotSame(second, repository.getFile(files[1], ';', SqlDialect.GENERIC, UTF_8));
+        } finally {
+            for (File file : files) if (file != null) file.delete();
+        }
+    }
+
+    @Test
+    public void shouldNotCacheLargeScripts() throws Exception {
+        ScriptRepository repository = new ScriptRepository(40);
+        assertNull(repository.getResource("/db/latest/current.sql", ';', SqlDialect.GENERIC, UTF_8));
+        assertEquals(0, repository.size());
+    }
+}
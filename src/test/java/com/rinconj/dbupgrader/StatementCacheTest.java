@@ -0,0 +1,59 @@
+package com.rinconj.dbupgrader;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+
+import static com.rinconj.dbupgrader.JdbcUtils.executeSql;
+import static com.rinconj.dbupgrader.JdbcUtils.queryFirst;
+import static org.junit.Assert.*;
+
+public class StatementCacheTest {
+
+    Connection getConnection(String name) throws Exception {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        return dataSource.getConnection();
+    }
+
+    @Test
+    public void shouldReusePreparedStatements() throws Exception {
+        Connection conn = getConnection("cache1");
+        StatementCache cache = new StatementCache(conn, 2);
+        try {
+            executeSql(conn, "create table t1(id int, val int)");
+            for (int i = 0; i < 100; i++) {
+                executeSql(cache, "insert into t1 values(?,?)", i, i * 2);
+                assertEquals(i * 2, ((Number) queryFirst(cache, "select val from t1 where id=?", -1, i)).intValue());
+            }
+            assertEquals(2, cache.size());
+            assertSame(cache.prepare("select val from t1 where id=?"), cache.prepare("select val from t1 where id=?"));
+        } finally {
+            cache.close();
+            conn.close();
+        }
+    }
+
+    @Test
+    public void shouldCloseEvictedStatements() throws Exception {
+        Connection conn = getConnection("cache2");
+        StatementCache cache = new StatementCache(conn, 2);
+        try {
+            PreparedStatement first = cache.prepare("select 1");
+            cache.prepare("select 2");
+            cache.prepare("select 1");
+            PreparedStatement second = cache.prepare("select 2");
+            cache.prepare("select 3"); //evicts select 1, the least recently used
+            assertTrue(first.isClosed());
+            assertFalse(second.isClosed());
+            assertEquals(2, cache.size());
+            cache.close();
+            assertTrue(second.isClosed());
+            assertEquals(0, cache.size());
+        } finally {
+            conn.close();
+        }
+    }
+}
@@ -3,6 +3,10 @@ package com.rinconj.dbupgrader;
 import org.junit.Test;
 
 import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
 
 import static org.junit.Assert.*;
 
@@ -85,5 +89,154 @@ public class StatementIteratorTest {
         assertFalse(it2.hasNext());
     }
 
+    @Test
+    public void shouldCloseBlockCommentAfterRepeatedStars() throws Exception {
+        assertEquals("select /** doc **/ 1", new StatementIterator(new StringReader("select /** doc **/ 1;")).next());
+    }
+
+    @Test
+    public void shouldHandleStatementsLargerThanBuffer() throws Exception {
+        StringBuilder script = new StringBuilder();
+        StringBuilder longString = new StringBuilder();
+        for (int i = 0; i < 20000; i++) longString.append("x;-/*");
+        script.append("insert into t values('").append(longString).append("');\n");
+        for (int i = 0; i < 5000; i++) script.append("--comment ").append(i).append("\nselect ").append(i).append(" from dual;   \n");
+        StatementIterator iterator = new StatementIterator(new StringReader(script.toString()));
+        assertEquals("insert into t values('" + longString + "')", iterator.next());
+        int count = 0;
+        while (iterator.hasNext()) {
+            assertEquals("select " + count + " from dual", iterator.next());
+            count++;
+        }
+        assertEquals(5000, count);
+    }
+
+    @Test
+    public void shouldKeepDirectiveComments() throws Exception {
+        String directive = "/*\n@batch \"data.csv\" ({header:true})\n*/\ninsert into t values(:$batch_0)";
+        assertEquals(directive, new StatementIterator(new StringReader(directive + ";\n")).next());
+        assertEquals("insert into t values(1)", new StatementIterator(new StringReader("/* mail me @ home */insert into t values(1)")).next());
+    }
+
+    @Test
+    public void shouldSkipManyEmptyStatements() throws Exception {
+        StringBuilder script = new StringBuilder();
+        for (int i = 0; i < 200000; i++) script.append(";\n");
+        script.append("select 1 from dual;\n");
+        for (int i = 0; i < 200000; i++) script.append("  ;\n");
+        StatementIterator iterator = new StatementIterator(new StringReader(script.toString()));
+        assertEquals("select 1 from dual", iterator.next());
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void shouldClassifyStatementsInAnyLocale() throws Exception {
+        Locale locale = Locale.getDefault();
+        //dotted capital I
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            assertEquals(StatementType.DML, StatementType.of("insert into t1 values(1)"));
+            assertEquals(StatementType.DDL, StatementType.of("/* comment */ create index i1 on t1(c1)"));
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    @Test
+    public void shouldClassifyDataChangesReturningRowsAsQueries() throws Exception {
+        assertEquals(StatementType.QUERY, StatementType.of("insert into t1(c1) values(1) returning id"));
+        assertEquals(StatementType.QUERY, StatementType.of("DELETE FROM t1 WHERE c1 = 1\nRETURNING *"));
+        assertEquals(StatementType.QUERY, StatementType.of("insert into t1(c1) output inserted.id values(1)"));
+        assertEquals(StatementType.DML, StatementType.of("insert into t1(c1, returning) values('returning')"));
+        assertEquals(StatementType.DML, StatementType.of("update t1 set c1 = (select c1 from t2 /* returning */) -- output"));
+        assertEquals(StatementType.DML, StatementType.of("insert into t1(c1) values(\"output\"), (t2.returning)"));
+        assertEquals(StatementType.DML, StatementType.of("delete from t1 where returning_id = 1"));
+    }
+
+    @Test
+    public void shouldReturnStatementViews() throws Exception {
+        StringBuilder large = new StringBuilder("insert into t1 values(0)");
+        for (int i = 1; i < 20000; i++) large.append(",\n(").append(i).append(')');
+        StatementIterator iterator = new StatementIterator(new StringReader("  statement 1 ;\n" + large + ";\nstatement 3\n;\nstatement 4"));
+        CharSequence first = iterator.nextSequence();
+        assertEquals("statement 1", first.toString());
+        assertEquals(11, first.length());
+        assertEquals("ment", first.subSequence(5, 9).toString());
+        CharSequence second = iterator.nextSequence();
+        assertEquals(StatementType.DML, StatementType.of(second));
+        assertEquals(large.toString(), second.toString());
+        assertEquals("statement 3", iterator.next());
+        assertTrue(iterator.hasNext());
+        assertEquals("statement 4", iterator.nextSequence().toString());
+        assertNull(iterator.nextSequence());
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void shouldKeepSeparatorsInDoubleQuotedIdentifiers() throws Exception {
+        assertEquals(Arrays.asList("create table \"a;\n\"(c1 int)", "select 1"),
+                split("create table \"a;\n\"(c1 int);\nselect 1;", SqlDialect.GENERIC));
+    }
+
+    @Test
+    public void shouldSplitPostgresDollarQuotedBodies() throws Exception {
+        String function = "create function f() returns int as $$\nbegin\n  perform 1;\n  return 1;\nend;\n$$ language plpgsql";
+        String tagged = "do $body$ begin\nraise notice '$$;';\nend $body$";
+        assertEquals(Arrays.asList(function, tagged, "select $1, a$b from t"),
+                split(function + ";\n" + tagged + ";\nselect $1, a$b from t;\n", SqlDialect.POSTGRESQL));
+        try {
+            split("select $a$ unterminated;\n", SqlDialect.POSTGRESQL);
+            fail("unterminated dollar quote expected");
+        } catch (RuntimeException e) {
+        }
+    }
+
+    @Test
+    public void shouldSplitOraclePlSqlBlocks() throws Exception {
+        String procedure = "create or replace procedure p(a number) is\n  x number;\n  procedure nested is begin null; end nested;\n" +
+                "begin\n  if a > 0 then\n    x := case when a > 1 then 2 else 1 end;\n  end if;\n" +
+                "  for i in 1..a loop\n    insert into t values(i);\n  end loop;\nend p;";
+        String pkg = "create package pkg as\n  procedure p;\n  function f return number;\nend pkg;";
+        String block = "declare\n  y number;\nbegin\n  case y when 1 then null; else null; end case;\nend;";
+        assertEquals(Arrays.asList("create table t(c1 number)", procedure, pkg, block, "select 1 from dual"),
+                split("create table t(c1 number);\n" + procedure + "\n/\n" + pkg + "\n" + block + "\n/\nselect 1 from dual\n/\n",
+                        SqlDialect.ORACLE));
+        //blocks spanning several buffers
+        StringBuilder script = new StringBuilder();
+        for (int i = 0; i < 500; i++) script.append(procedure).append('\n').append(block).append('\n');
+        List<String> statements = split(script.toString(), SqlDialect.ORACLE);
+        assertEquals(1000, statements.size());
+        assertEquals(procedure, statements.get(998));
+    }
+
+    @Test
+    public void shouldSplitMySqlDelimiterBlocks() throws Exception {
+        String procedure = "create procedure p()\nbegin\n  insert into `t;` values('it\\'s;');\n  # comment;\nend";
+        assertEquals(Arrays.asList("insert into t values(1)", procedure.replace("# comment;\n", "\n"), "select 1"),
+                split("insert into t values(1);\nDELIMITER $$\n" + procedure + "$$\ndelimiter ;\nselect 1;\n", SqlDialect.MYSQL));
+    }
 
-}
\ No newline at end of file
+    @Test
+    public void shouldSplitSqlServerBatches() throws Exception {
+        String procedure = "create procedure p as\nbegin\n  insert into [t;] values(1);\n  select 1;\nend";
+        String block = "if not exists (select 1 from t) begin\n  begin transaction;\n  insert into t values(1);\n  commit;\nend";
+        assertEquals(Arrays.asList("create table t(c1 int)", procedure, block, "select 2"),
+                split("create table t(c1 int);\ngo\n" + procedure + "\nGO\n" + block + ";\nselect 2\nGO", SqlDialect.SQLSERVER));
+    }
+
+    @Test
+    public void shouldDetectDialect() throws Exception {
+        assertEquals(SqlDialect.POSTGRESQL, SqlDialect.of("PostgreSQL"));
+        assertEquals(SqlDialect.ORACLE, SqlDialect.of("Oracle"));
+        assertEquals(SqlDialect.MYSQL, SqlDialect.of("MariaDB"));
+        assertEquals(SqlDialect.SQLSERVER, SqlDialect.of("Microsoft SQL Server"));
+        assertEquals(SqlDialect.GENERIC, SqlDialect.of("H2"));
+    }
+
+    private static List<String> split(String script, SqlDialect dialect) {
+        List<String> statements = new ArrayList<String>();
+        StatementIterator iterator = new StatementIterator(new StringReader(script), ';', dialect);
+        while (iterator.hasNext()) statements.add(iterator.next());
+        return statements;
+    }
+}
@@ -0,0 +1,77 @@
+package com.rinconj.dbupgrader;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class StatementPipelineTest {
+
+    @Test
+    public void shouldKeepStatementOrder() throws Exception {
+        StringBuilder script = new StringBuilder();
+        for (int i = 0; i < 1000; i++) script.append("statement ").append(i).append(";\n");
+        StatementPipeline pipeline = new StatementPipeline(new StatementIterator(new StringReader(script.toString())), 4, "test");
+        try {
+            for (int i = 0; i < 1000; i++) assertEquals("statement " + i, pipeline.next());
+            assertFalse(pipeline.hasNext());
+        } finally {
+            pipeline.close();
+        }
+    }
+
+    @Test
+    public void shouldRethrowParsingFailures() throws Exception {
+        StatementPipeline pipeline = new StatementPipeline(new StatementIterator(new StringReader("statement 1;\nselect 'unterminated")), 4, "test");
+        try {
+            assertEquals("statement 1", pipeline.next());
+            pipeline.hasNext();
+            fail("unterminated string expected");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().startsWith("Unterminated string"));
+        } finally {
+            pipeline.close();
+        }
+    }
+
+    @Test
+    public void shouldStopParsingWhenClosed() throws Exception {
+        final AtomicInteger produced = new AtomicInteger();
+        Iterator<String> endless = new Iterator<String>() {
+            public boolean hasNext() {
+                return true;
+            }
+
+            public String next() {
+                return "statement " + produced.incrementAndGet();
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+        StatementPipeline pipeline = new StatementPipeline(endless, 2, "test");
+        assertEquals("statement 1", pipeline.next());
+        pipeline.close();
+        int count = produced.get();
+        assertTrue(count <= 4);
+        Thread.sleep(50);
+        assertEquals(count, produced.get());
+        assertFalse(pipeline.hasNext());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void shouldFailAfterLastStatement() throws Exception {
+        StatementPipeline pipeline = new StatementPipeline(new StatementIterator(new StringReader("statement 1")), 1, "test");
+        try {
+            pipeline.next();
+            pipeline.next();
+        } finally {
+            pipeline.close();
+        }
+    }
+}
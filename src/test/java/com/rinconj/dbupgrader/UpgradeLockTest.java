@@ -0,0 +1,59 @@
+package com.rinconj.dbupgrader;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.Timestamp;
+
+import static com.rinconj.dbupgrader.JdbcUtils.collectFirst;
+import static com.rinconj.dbupgrader.JdbcUtils.executeSql;
+import static org.junit.Assert.*;
+
+public class UpgradeLockTest {
+
+    private JdbcDataSource getDataSource(String name) {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        return dataSource;
+    }
+
+    @Test
+    public void shouldGrantLockToOneNodeAtATime() throws Exception {
+        JdbcDataSource dataSource = getDataSource("lock1");
+        UpgradeLock lock1 = new UpgradeLock(dataSource, "TEST_LOCK", "default", 60000);
+        UpgradeLock lock2 = new UpgradeLock(dataSource, "TEST_LOCK", "default", 60000);
+        UpgradeLock otherSchema = new UpgradeLock(dataSource, "TEST_LOCK", "other", 60000);
+        assertTrue(lock1.tryAcquire());
+        try {
+            assertFalse(lock2.tryAcquire());
+            assertTrue(otherSchema.tryAcquire());
+        } finally {
+            lock1.release();
+            otherSchema.release();
+        }
+        assertFalse(lock1.isHeld());
+        assertTrue(lock2.tryAcquire());
+        lock2.release();
+    }
+
+    @Test
+    public void shouldTakeOverExpiredLock() throws Exception {
+        JdbcDataSource dataSource = getDataSource("lock2");
+        UpgradeLock lock = new UpgradeLock(dataSource, "TEST_LOCK", "default", 60000);
+        assertTrue(lock.tryAcquire());
+        lock.release();
+        Connection conn = dataSource.getConnection();
+        try {
+            //a crashed node, which stopped renewing its lease
+            executeSql(conn, "insert into TEST_LOCK(id, owner, expires) values(?,?,?)", "default", "crashed",
+                    new Timestamp(System.currentTimeMillis() - 1000));
+            assertTrue(lock.tryAcquire());
+            assertEquals(lock.getOwner(), collectFirst(conn.createStatement().executeQuery("select owner from TEST_LOCK"), ""));
+            lock.release();
+            assertEquals(0L, (long) collectFirst(conn.createStatement().executeQuery("select count(*) from TEST_LOCK"), -1L));
+        } finally {
+            conn.close();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.rinconj.dbupgrader;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+public class ValidationMatrixTest {
+
+    ValidationMatrix newMatrix(ValidationMatrix.DatabaseFactory factory) {
+        ValidationMatrix matrix = new ValidationMatrix(factory, "dev", "prod") {
+            @Override
+            protected DbUpgrader newUpgrader(DataSource dataSource, String environment) {
+                DbUpgrader upgrader = super.newUpgrader(dataSource, environment);
+                upgrader.setScriptsBasePath("/db-matrix");
+                return upgrader;
+            }
+        };
+        matrix.setParallelism(4);
+        return matrix;
+    }
+
+    @Test
+    public void shouldValidateVersionsOnSnapshots() throws Exception {
+        assertResults(newMatrix(ValidationMatrix.h2InMemory()).validate(3));
+    }
+
+    @Test
+    public void shouldValidateVersionsFromScratchWithoutSnapshots() throws Exception {
+        assertResults(newMatrix(new ValidationMatrix.DatabaseFactory() {
+            public DataSource create(String name) {
+                JdbcDataSource dataSource = new JdbcDataSource();
+                dataSource.setURL("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+                return dataSource;
+            }
+        }).validate(3));
+    }
+
+    private static void assertResults(UpgradeReport report) {
+        assertFalse(report.isSuccess());
+        List<UpgradeReport.TargetResult> results = report.getResults();
+        assertEquals(6, results.size());
+        String[] names = {"dev v1", "dev v2", "dev v3", "prod v1", "prod v2", "prod v3"};
+        for (int i = 0; i < names.length; i++) {
+            assertEquals(names[i], results.get(i).getName());
+            //only the prod rollback of version 2 is broken
+            UpgradeReport.Status expected = i == 4 ? UpgradeReport.Status.FAILED : UpgradeReport.Status.SUCCESS;
+            assertEquals(results.get(i).toString(), expected, results.get(i).getStatus());
+        }
+        assertNotNull(results.get(4).getError());
+    }
+}
@@ -0,0 +1,13 @@
+create table batch1(col1 int primary key, col2 varchar(20));
+
+insert into batch1 values(1, 'one');
+insert into batch1 values(2, 'two');
+insert into batch1 values(3, 'three');
+insert into batch1 values(4, 'four');
+
+update batch1 set col2 = 'updated' where col1 > 2;
+
+create table batch2 as select * from batch1;
+
+insert into batch2 select col1 + 10, col2 from batch1;
+delete from batch2 where col1 = 1;
@@ -0,0 +1,3 @@
+insert into batch1 values(5, 'five');
+insert into batch1 values(1, 'duplicate');
+insert into batch1 values(6, 'six');
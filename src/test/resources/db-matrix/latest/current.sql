@@ -0,0 +1,3 @@
+create table mat1(id int primary key, name varchar(20), col2 int);
+
+create table mat3(id int, mat1_id int references mat1(id));
@@ -0,0 +1,6 @@
+insert into mat1 values(1, 'prod', 2);
+create unique index idx_mat1_name_u on mat1(name);
+
+--not in the upgrades
+create index idx_mat1_name on mat1(name);
+create table db_version_audit(id int);
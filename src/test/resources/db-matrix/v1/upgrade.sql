@@ -0,0 +1 @@
+create table mat1(id int primary key, name varchar(20));
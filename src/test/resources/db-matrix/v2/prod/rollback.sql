@@ -0,0 +1,2 @@
+--broken: the table doesn't exist
+delete from mat_missing;
@@ -0,0 +1 @@
+insert into mat1 values(1, 'prod', 2);
@@ -0,0 +1 @@
+alter table mat1 drop column col2;
@@ -0,0 +1 @@
+alter table mat1 add col2 int;
@@ -0,0 +1 @@
+drop index idx_mat1_name_u;
@@ -0,0 +1 @@
+create unique index idx_mat1_name_u on mat1(name);
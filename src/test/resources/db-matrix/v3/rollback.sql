@@ -0,0 +1 @@
+drop table mat3;
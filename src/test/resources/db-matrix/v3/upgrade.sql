@@ -0,0 +1 @@
+create table mat3(id int, mat1_id int references mat1(id));
@@ -0,0 +1,11 @@
+create table par1(col1 int, col2 varchar(20));
+create table par2(col1 int, col2 varchar(20));
+create table par3(col1 int, col2 varchar(20));
+
+/* @parallel {threads:3} */
+insert into par1 select x, 'p1' from system_range(1, 100);
+insert into par2 select x, 'p2' from system_range(1, 200);
+insert into par3 select x, 'p3' from system_range(1, 300);
+create index idx_par1 on par1(col1);
+/* @end */
+create table par_all as select * from par1 union all select * from par2 union all select * from par3;
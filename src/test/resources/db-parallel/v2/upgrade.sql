@@ -0,0 +1,3 @@
+/* @parallel */
+create index idx_par2 on par2(col1);
+create index idx_par3 on missing_table(col1);